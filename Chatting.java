@@ -2,29 +2,24 @@ import java.lang.*;
 import java.io.*;
 import java.net.*;
 import java.util.Scanner;
-import org.teleal.cling.*;
-import org.teleal.cling.support.model.PortMapping;
-import org.teleal.cling.support.igd.PortMappingListener;
-import java.net.*;
-import java.io.*;
 
 public class Chatting
 {
 	public static void main (String [] args)
 	{
-
 		try{
-		URL whatismyip = new URL("http://automation.whatismyip.com/n09230945.asp");
-		BufferedReader readerin = new BufferedReader(new InputStreamReader(whatismyip.openStream()));
-		String mip = readerin.readLine();
 
-		System.out.println("Your IP Address: " + mip);
+		// Listen right away, port mapping and the external IP lookup run while we ask the user
+		Pserver server;
+		if (args.length > 0)
+		{
+			server = new Pserver(null, Integer.parseInt(args[0]));
 		}
-	catch(Exception e)
-	{
-		System.out.println("Could not retreive Extermal IP");
-	}
-		try{
+		else
+		{
+			server = new Pserver(null);
+		}
+		server.open();
 
 		Scanner in = new Scanner(System.in);
 		Pclient client;
@@ -35,27 +30,28 @@ public class Chatting
 			//{
 				client = new Pclient(Integer.parseInt(args[0]), args[1]);
 			//}
-			
+
 		}
 		else
 		{
-			System.out.print("IP to Connect to?");
-			String ip = in.nextLine() +": ";
-			System.out.println("");
+			String ip;
+			while (true)
+			{
+				System.out.print("IP to Connect to?");
+				ip = in.nextLine().trim();
+				System.out.println("");
+				if (!new InetSocketAddress(ip, 1234).isUnresolved())
+				{
+					break;
+				}
+				System.err.println("Could not resolve " + ip);
+			}
 			client = new Pclient(1234, ip);
 		}
 
 		System.out.print("Username? ");
 		String username = in.nextLine() +": ";
-		Pserver server;
-		if (args.length > 0)
-		{
-			server = new Pserver(username, Integer.parseInt(args[0]));
-		}
-		else
-		{
-			server = new Pserver(username);
-					}
+		server.username = username;
 		server.start();
 		client.start();
 		try
@@ -74,4 +70,4 @@ public class Chatting
 
 	}
 }
-}
\ No newline at end of file
+}
@@ -0,0 +1,483 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Chat throughput and latency benchmark, everything in one process on loopback.
+ * <p>
+ * Usage: <code>java Pbench [loopback|frames] [key=value ...]</code>
+ * </p>
+ * <p>
+ * The <code>loopback</code> mode starts <code>servers</code> chat servers and <code>clients</code>
+ * clients, spread evenly over the servers. Every server sends <code>rate</code> messages per second
+ * of <code>size</code> bytes. After <code>warmup</code> seconds it measures for <code>seconds</code>
+ * and reports throughput, end-to-end latency percentiles, allocation rate and CPU time per
+ * message. Latency is taken from the intended send time, so a stalled sender shows up in the
+ * percentiles instead of silently lowering the rate.
+ * </p>
+ * <p>
+ * The <code>frames</code> mode measures encoding and decoding of {@link Pframe}s without any I/O.
+ * </p>
+ * <p>
+ * Set <code>maxP99us</code>, <code>maxP999us</code> or <code>minThroughput</code> to gate a change,
+ * the exit code is <code>1</code> if any limit is missed.
+ * </p>
+ */
+public class Pbench
+{
+	protected final Map<String, String> options = new HashMap<>();
+
+	public static void main(String[] args) throws Exception
+	{
+		Pbench bench = new Pbench();
+		String mode = "loopback";
+		for (String arg : args)
+		{
+			int eq = arg.indexOf('=');
+			if (eq > 0)
+			{
+				bench.options.put(arg.substring(0, eq), arg.substring(eq + 1));
+			}
+			else
+			{
+				mode = arg;
+			}
+		}
+		boolean passed;
+		if (mode.equals("frames"))
+		{
+			passed = bench.frames();
+		}
+		else if (mode.equals("loopback"))
+		{
+			passed = bench.loopback();
+		}
+		else
+		{
+			System.err.println("Unknown mode: " + mode + ", use loopback or frames");
+			passed = false;
+		}
+		System.exit(passed ? 0 : 1);
+	}
+
+	protected long option(String name, long defaultValue)
+	{
+		String value = options.get(name);
+		return value != null ? Long.parseLong(value) : defaultValue;
+	}
+
+	protected boolean loopback() throws Exception
+	{
+		int servers = (int) option("servers", 1);
+		int clients = (int) option("clients", 4);
+		long rate = option("rate", 1000);
+		int size = (int) Math.max(8, option("size", 64));
+		long warmup = option("warmup", 2);
+		long seconds = option("seconds", 10);
+
+		System.out.println("Loopback: " + servers + " servers, " + clients + " clients, "
+			+ rate + " msg/s per server, " + size + " bytes, " + seconds + " s");
+
+		List<File> dirs = new ArrayList<>();
+		List<Pserver> chatServers = new ArrayList<>();
+		for (int i = 0; i < servers; i++)
+		{
+			Pserver server = new Pserver("bench" + i + ": ", 0);
+			File dir = Files.createTempDirectory("pbench").toFile();
+			dirs.add(dir);
+			server.historyDir = dir;
+			server.listen();
+			chatServers.add(server);
+		}
+
+		Histogram latency = new Histogram();
+		List<BenchClient> chatClients = new ArrayList<>();
+		for (int i = 0; i < clients; i++)
+		{
+			BenchClient client = new BenchClient(chatServers.get(i % servers).port, latency);
+			client.start();
+			chatClients.add(client);
+		}
+		awaitPeers(chatServers, clients);
+
+		List<Pump> pumps = new ArrayList<>();
+		for (Pserver server : chatServers)
+		{
+			Pump pump = new Pump(server, rate, size);
+			pumps.add(pump);
+			pump.thread.start();
+		}
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+		latency.reset();
+		long received0 = received(chatClients);
+		long sent0 = sent(pumps);
+		long cpu0 = processCpuNanos();
+		long allocated0 = allocatedBytes();
+		long start = System.nanoTime();
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+
+		long elapsed = System.nanoTime() - start;
+		long received = received(chatClients) - received0;
+		long sent = sent(pumps) - sent0;
+		long cpu = processCpuNanos() - cpu0;
+		long allocated = allocatedBytes() - allocated0;
+
+		for (Pump pump : pumps)
+		{
+			pump.running = false;
+			pump.thread.join();
+		}
+		for (BenchClient client : chatClients)
+		{
+			client.interrupt();
+		}
+		for (Pserver server : chatServers)
+		{
+			server.close();
+		}
+		for (File dir : dirs)
+		{
+			delete(dir);
+		}
+
+		double secs = elapsed / 1e9;
+		double throughput = received / secs;
+		System.out.println(String.format("Sent:       %,d msg (%,.0f msg/s)", sent, sent / secs));
+		System.out.println(String.format("Received:   %,d msg (%,.0f msg/s, %,.1f MB/s)",
+			received, throughput, received * (double) (size + Pframe.HEADER_BYTES) / secs / 1e6));
+		System.out.println(String.format("Latency:    p50 %,d us, p99 %,d us, p999 %,d us, max %,d us",
+			latency.percentile(50), latency.percentile(99), latency.percentile(99.9), latency.max()));
+		if (allocated >= 0)
+		{
+			System.out.println(String.format("Allocation: %,.1f MB/s, %,.0f bytes/msg",
+				allocated / secs / 1e6, received > 0 ? allocated / (double) received : 0));
+		}
+		if (cpu >= 0)
+		{
+			System.out.println(String.format("CPU:        %,.0f ns/msg", received > 0 ? cpu / (double) received : 0));
+		}
+
+		boolean passed = true;
+		passed &= check("p99", latency.percentile(99), option("maxP99us", Long.MAX_VALUE), true);
+		passed &= check("p999", latency.percentile(99.9), option("maxP999us", Long.MAX_VALUE), true);
+		passed &= check("throughput", (long) throughput, option("minThroughput", 0), false);
+		return passed;
+	}
+
+	protected boolean frames()
+	{
+		int size = (int) Math.max(8, option("size", 64));
+		long iterations = option("iterations", 5000000);
+		byte[] payload = new byte[size];
+		Pbuffers pool = new Pbuffers(4096, 16);
+
+		System.out.println("Frames: " + size + " byte payload, " + iterations + " iterations");
+		for (int round = 0; round < 2; round++)
+		{
+			// First round is warmup
+			long start = System.nanoTime();
+			for (long i = 0; i < iterations; i++)
+			{
+				Pmessage message = Pmessage.encode(pool, Pframe.TEXT, 1, i, payload);
+				Pframe.sequence(message.frame, i);
+				message.release();
+			}
+			long encode = System.nanoTime() - start;
+
+			int frameBytes = Pframe.HEADER_BYTES + size;
+			int perBuffer = Math.max(1, 65536 / frameBytes);
+			ByteBuffer stream = ByteBuffer.allocate(perBuffer * frameBytes);
+			for (int i = 0; i < perBuffer; i++)
+			{
+				stream.put(Pframe.encode(Pframe.TEXT, 1, i, i, payload));
+			}
+			Pframe frame = new Pframe();
+			long checksum = 0;
+			start = System.nanoTime();
+			try
+			{
+				for (long i = 0; i < iterations; i += perBuffer)
+				{
+					stream.flip();
+					while (frame.decode(stream))
+					{
+						checksum += frame.seq;
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			long decode = System.nanoTime() - start;
+
+			if (round > 0)
+			{
+				System.out.println(String.format("Encode:     %,.1f ns/frame", encode / (double) iterations));
+				System.out.println(String.format("Decode:     %,.1f ns/frame (checksum %d)", decode / (double) iterations, checksum));
+			}
+		}
+		return true;
+	}
+
+	protected boolean check(String name, long value, long limit, boolean max)
+	{
+		if (max ? value > limit : value < limit)
+		{
+			System.out.println("FAILED: " + name + " is " + value + ", limit " + limit);
+			return false;
+		}
+		return true;
+	}
+
+	protected void awaitPeers(List<Pserver> servers, int clients) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < deadline)
+		{
+			int connected = 0;
+			for (Pserver server : servers)
+			{
+				connected += server.peers.get();
+			}
+			if (connected >= clients)
+			{
+				// Give the RESUME frames a moment, peers only get live messages after that
+				Thread.sleep(200);
+				return;
+			}
+			Thread.sleep(50);
+		}
+		throw new IllegalStateException("Not all clients connected");
+	}
+
+	protected long received(List<BenchClient> clients)
+	{
+		long total = 0;
+		for (BenchClient client : clients)
+		{
+			total += client.getMessagesReceived();
+		}
+		return total;
+	}
+
+	protected long sent(List<Pump> pumps)
+	{
+		long total = 0;
+		for (Pump pump : pumps)
+		{
+			total += pump.sent.get();
+		}
+		return total;
+	}
+
+	protected static long processCpuNanos()
+	{
+		java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+		{
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	/**
+	 * Bytes allocated by all live threads, or <code>-1</code> if the JVM can't tell.
+	 */
+	protected static long allocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+		{
+			return -1;
+		}
+		long total = 0;
+		for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds()))
+		{
+			if (bytes > 0)
+			{
+				total += bytes;
+			}
+		}
+		return total;
+	}
+
+	protected static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Broadcasts at a fixed rate, the payload starts with the intended send time.
+	 */
+	protected static class Pump implements Runnable
+	{
+		protected final Pserver server;
+		protected final long intervalNanos;
+		protected final byte[] payload;
+		protected final AtomicLong sent = new AtomicLong();
+		protected final Thread thread = new Thread(this, "Pump");
+		protected volatile boolean running = true;
+
+		public Pump(Pserver server, long rate, int size)
+		{
+			this.server = server;
+			this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+			this.payload = new byte[size];
+		}
+
+		public void run()
+		{
+			ByteBuffer stamp = ByteBuffer.wrap(payload);
+			long next = System.nanoTime();
+			try
+			{
+				while (running)
+				{
+					long now = System.nanoTime();
+					if (now < next)
+					{
+						LockSupport.parkNanos(next - now);
+						continue;
+					}
+					stamp.putLong(0, next);
+					server.broadcast(payload);
+					sent.incrementAndGet();
+					next += intervalNanos;
+				}
+			}
+			catch (IOException e)
+			{
+				System.out.println("Pump Error! " + e);
+			}
+		}
+	}
+
+	/**
+	 * Records latency instead of printing messages.
+	 */
+	protected static class BenchClient extends Pclient
+	{
+		protected final Histogram latency;
+
+		public BenchClient(int port, Histogram latency)
+		{
+			super(port, "localhost");
+			this.latency = latency;
+		}
+
+		@Override
+		protected void deliver(Pframe frame)
+		{
+			messagesReceived.incrementAndGet();
+			lastSender = frame.sender;
+			lastSeq = frame.seq;
+			if (frame.type == Pframe.TEXT && frame.length >= 8)
+			{
+				latency.record((System.nanoTime() - buffer.getLong(frame.payloadOffset)) / 1000);
+			}
+		}
+	}
+
+	/**
+	 * Log-linear histogram of microsecond values, lock-free.
+	 * <p>
+	 * Values below 64 are exact, above that every power of two is split into 32 buckets,
+	 * so the reported percentiles are within about 3% of the recorded value.
+	 * </p>
+	 */
+	protected static class Histogram
+	{
+		protected static final int LINEAR = 64;
+		protected static final int HALF = LINEAR / 2;
+
+		protected final AtomicLongArray counts = new AtomicLongArray(LINEAR + 58 * HALF);
+		protected final AtomicLong maximum = new AtomicLong();
+
+		public void record(long micros)
+		{
+			long value = Math.max(0, micros);
+			counts.incrementAndGet(index(value));
+			long max;
+			while (value > (max = maximum.get()) && !maximum.compareAndSet(max, value))
+			{
+				// Retry
+			}
+		}
+
+		public void reset()
+		{
+			for (int i = 0; i < counts.length(); i++)
+			{
+				counts.set(i, 0);
+			}
+			maximum.set(0);
+		}
+
+		public long max()
+		{
+			return maximum.get();
+		}
+
+		public long percentile(double percent)
+		{
+			long total = 0;
+			for (int i = 0; i < counts.length(); i++)
+			{
+				total += counts.get(i);
+			}
+			long rank = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++)
+			{
+				seen += counts.get(i);
+				if (seen >= rank)
+				{
+					return Math.min(upperBound(i), max());
+				}
+			}
+			return 0;
+		}
+
+		protected static int index(long value)
+		{
+			if (value < LINEAR)
+			{
+				return (int) value;
+			}
+			int shift = 63 - Long.numberOfLeadingZeros(value) - 5;
+			return LINEAR + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+		}
+
+		protected static long upperBound(int index)
+		{
+			if (index < LINEAR)
+			{
+				return index;
+			}
+			int shift = (index - LINEAR) / HALF + 1;
+			long sub = (index - LINEAR) % HALF + HALF;
+			return ((sub + 1) << shift) - 1;
+		}
+	}
+}
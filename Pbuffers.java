@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized direct buffers for outgoing frames.
+ * <p>
+ * Frames larger than {@link #bufferBytes} get a buffer of their own which is not
+ * pooled. Direct buffers are written to sockets without the extra copy the JDK makes
+ * for heap buffers.
+ * </p>
+ */
+public class Pbuffers
+{
+	public final int bufferBytes;
+	public final int maxPooled;
+
+	protected final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	protected final AtomicInteger pooled = new AtomicInteger();
+
+	public Pbuffers(int bufferBytes, int maxPooled)
+	{
+		this.bufferBytes = bufferBytes;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * @return A cleared buffer with its limit set to the requested size.
+	 */
+	public ByteBuffer acquire(int bytes)
+	{
+		if (bytes > bufferBytes)
+		{
+			return ByteBuffer.allocateDirect(bytes);
+		}
+		ByteBuffer buffer = free.poll();
+		if (buffer != null)
+		{
+			pooled.decrementAndGet();
+		}
+		else
+		{
+			buffer = ByteBuffer.allocateDirect(bufferBytes);
+		}
+		buffer.clear().limit(bytes);
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer)
+	{
+		if (buffer.capacity() != bufferBytes)
+		{
+			return;
+		}
+		if (pooled.incrementAndGet() > maxPooled)
+		{
+			pooled.decrementAndGet();
+			return;
+		}
+		free.offer(buffer);
+	}
+}
@@ -1,14 +1,40 @@
 import java.lang.*;
 import java.io.*;
 import java.net.*;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Receives the messages of one remote {@link Pserver} and prints them.
+ * <p>
+ * The receive loop blocks in the channel read, so an idle client costs no CPU, and decodes
+ * {@link Pframe}s from one reusable buffer. Lost or refused connections are retried with
+ * an exponentially growing, jittered delay, and resume where the last connection left off.
+ * A host name that doesn't resolve stops the client.
+ * </p>
+ */
 public class Pclient implements Runnable
 {
 	String ip = "localhost";
-	Thread thread = new Thread(this, "Client");
+	Thread thread = Pthreads.create(this, "Client");
 	int port = 1234;
 
+	public long initialBackoffMillis = 250;
+	public long maxBackoffMillis = 30000;
+
+	protected final AtomicLong bytesReceived = new AtomicLong();
+	protected final AtomicLong messagesReceived = new AtomicLong();
+	protected final AtomicLong reconnectAttempts = new AtomicLong();
+	protected final Random random = new Random();
+	protected final Pframe frame = new Pframe();
+	protected ByteBuffer buffer = ByteBuffer.allocate(8192);
+	protected long lastSender;
+	protected long lastSeq = -1;
+
 	public Pclient(int port, String ip)
 	{
 		this.ip = ip;
@@ -16,28 +42,134 @@ public class Pclient implements Runnable
 	}
 
 	public void run()
-	{ 
-		//System.out.print(ip);
-		while(true)
-		
-{		try
+	{
+		int failures = 0;
+		while (!Thread.currentThread().isInterrupted())
 		{
-			Socket sckt = new Socket(ip, port);
-			BufferedReader in = new BufferedReader(new InputStreamReader(sckt.getInputStream()));
-			while(true)
-			{ 
-				if (in.ready())
-				{
-					System.out.println(in.readLine());
-				}
+			try (SocketChannel sckt = SocketChannel.open(new InetSocketAddress(ip, port)))
+			{
+				failures = 0;
+				resume(sckt);
+				receive(sckt);
+			}
+			catch (ClosedByInterruptException e)
+			{
+				break;
+			}
+			catch (IOException e)
+			{
+				// Connection refused or lost, fall through and retry
+			}
+			catch (UnresolvedAddressException e)
+			{
+				// A mistyped address, reconnecting won't help
+				System.err.println("Client could not resolve " + ip + ", giving up");
+				break;
+			}
+
+			try
+			{
+				reconnectAttempts.incrementAndGet();
+				Thread.sleep(backoff(failures++));
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Tells the server the last message we have seen, it replays everything newer first.
+	 */
+	protected void resume(SocketChannel sckt) throws IOException
+	{
+		ByteBuffer payload = ByteBuffer.allocate(8).putLong(lastSeq);
+		ByteBuffer frame = Pframe.encode(Pframe.RESUME, 0, 0, System.currentTimeMillis(), payload.array());
+		while (frame.hasRemaining())
+		{
+			sckt.write(frame);
+		}
+	}
+
+	/**
+	 * Blocks on the channel and decodes frames in place, returns when the peer hangs up.
+	 */
+	protected void receive(SocketChannel sckt) throws IOException
+	{
+		buffer.clear();
+		int read;
+		while ((read = sckt.read(buffer)) >= 0)
+		{
+			bytesReceived.addAndGet(read);
+			buffer.flip();
+			while (frame.decode(buffer))
+			{
+				deliver(frame);
+			}
+			int required = Pframe.required(buffer);
+			if (required > buffer.capacity())
+			{
+				// Only grows for unusually large messages, and stays that size
+				ByteBuffer bigger = ByteBuffer.allocate(required);
+				bigger.put(buffer);
+				buffer = bigger;
 			}
+			else
+			{
+				buffer.compact();
+			}
+		}
+	}
+
+	/**
+	 * Prints the payload bytes straight from the receive buffer, no <code>String</code> is created.
+	 */
+	protected void deliver(Pframe frame)
+	{
+		messagesReceived.incrementAndGet();
+		if (frame.sender == lastSender && frame.seq <= lastSeq)
+		{
+			// Already seen before the reconnect
+			return;
 		}
-		catch(Exception e) 
+		lastSender = frame.sender;
+		lastSeq = frame.seq;
+		if (frame.type == Pframe.TEXT)
+		{
+			System.out.write(buffer.array(), frame.payloadOffset, frame.length);
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Exponential backoff with "equal jitter": half of the delay is fixed, the other half random.
+	 */
+	protected long backoff(int failures)
+	{
+		long delay = initialBackoffMillis << Math.min(failures, 20);
+		if (delay <= 0 || delay > maxBackoffMillis)
 		{
-			//System.out.println("Client Error!");
+			delay = maxBackoffMillis;
 		}
-	
-	}}
+		long half = delay / 2;
+		return half + (long) (random.nextDouble() * (delay - half));
+	}
+
+	public long getBytesReceived()
+	{
+		return bytesReceived.get();
+	}
+
+	public long getMessagesReceived()
+	{
+		return messagesReceived.get();
+	}
+
+	public long getReconnectAttempts()
+	{
+		return reconnectAttempts.get();
+	}
 
 	protected void start()
 	{
@@ -48,4 +180,4 @@ public class Pclient implements Runnable
 	{
 		thread.interrupt();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * The chat wire format, one length-prefixed binary frame per message.
+ * <pre>
+ * int  payload length
+ * byte message type
+ * long sender id
+ * long sequence number, assigned by the sender's {@link Phistory}
+ * long timestamp (milliseconds since the epoch)
+ * ...  payload (UTF-8 text for TEXT frames)
+ * </pre>
+ * <p>
+ * A peer sends a RESUME frame right after connecting, its payload is the last
+ * sequence number it has seen, or <code>-1</code> if it only wants new messages.
+ * </p>
+ * <p>
+ * An instance is a reusable decoder: {@link #decode(ByteBuffer)} fills its fields and
+ * leaves the payload where it is in the receive buffer, nothing is copied or allocated.
+ * </p>
+ */
+public class Pframe
+{
+	public static final int HEADER_BYTES = 4 + 1 + 8 + 8 + 8;
+	public static final int MAX_PAYLOAD_BYTES = 1 << 20;
+
+	public static final byte END = 0;
+	public static final byte TEXT = 1;
+	public static final byte RESUME = 2;
+
+	public int length;
+	public byte type;
+	public long sender;
+	public long seq;
+	public long timestamp;
+	public int payloadOffset;
+
+	/**
+	 * @return A flipped heap buffer holding the complete frame.
+	 */
+	public static ByteBuffer encode(byte type, long sender, long seq, long timestamp, byte[] payload)
+	{
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+		encode(frame, type, sender, seq, timestamp, payload);
+		return frame;
+	}
+
+	/**
+	 * Writes the frame into the given buffer and flips it.
+	 */
+	public static void encode(ByteBuffer frame, byte type, long sender, long seq, long timestamp, byte[] payload)
+	{
+		frame.putInt(payload.length).put(type).putLong(sender).putLong(seq).putLong(timestamp).put(payload);
+		frame.flip();
+	}
+
+	/**
+	 * Overwrites the sequence number of an encoded frame.
+	 */
+	public static void sequence(ByteBuffer frame, long seq)
+	{
+		frame.putLong(frame.position() + 13, seq);
+	}
+
+	/**
+	 * Decodes the next frame if it is complete in the buffer, and advances past it.
+	 *
+	 * @param in A buffer in read mode, positioned at a frame boundary.
+	 * @return <code>false</code> if more bytes are needed, the buffer is then untouched.
+	 * @throws IOException If the header announces an illegal payload length.
+	 */
+	public boolean decode(ByteBuffer in) throws IOException
+	{
+		int start = in.position();
+		if (in.remaining() < HEADER_BYTES)
+		{
+			return false;
+		}
+		int len = in.getInt(start);
+		if (len < 0 || len > MAX_PAYLOAD_BYTES)
+		{
+			throw new IOException("Invalid frame length: " + len);
+		}
+		if (in.remaining() < HEADER_BYTES + len)
+		{
+			return false;
+		}
+		length = len;
+		type = in.get(start + 4);
+		sender = in.getLong(start + 5);
+		seq = in.getLong(start + 13);
+		timestamp = in.getLong(start + 21);
+		payloadOffset = start + HEADER_BYTES;
+		in.position(payloadOffset + len);
+		return true;
+	}
+
+	/**
+	 * @return The sequence number of an encoded frame.
+	 */
+	public static long sequenceOf(ByteBuffer frame)
+	{
+		return frame.getLong(frame.position() + 13);
+	}
+
+	/**
+	 * @return The number of bytes the buffer must be able to hold for the frame starting at its position.
+	 */
+	public static int required(ByteBuffer in)
+	{
+		if (in.remaining() < 4)
+		{
+			return HEADER_BYTES;
+		}
+		return HEADER_BYTES + Math.max(0, Math.min(MAX_PAYLOAD_BYTES, in.getInt(in.position())));
+	}
+}
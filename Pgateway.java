@@ -0,0 +1,72 @@
+import org.teleal.cling.model.action.ActionInvocation;
+import org.teleal.cling.model.message.UpnpResponse;
+import org.teleal.cling.model.meta.Device;
+import org.teleal.cling.model.meta.Service;
+import org.teleal.cling.registry.Registry;
+import org.teleal.cling.support.igd.PortMappingListener;
+import org.teleal.cling.support.igd.callback.GetExternalIP;
+import org.teleal.cling.support.model.PortMapping;
+
+/**
+ * Maps the chat port on the Internet gateway and asks the same gateway for our external address.
+ * <p>
+ * Both happen on Cling's own threads when the gateway is discovered, and are reported
+ * to {@link Pstartup} as they complete.
+ * </p>
+ */
+public class Pgateway extends PortMappingListener
+{
+	protected final Pstartup startup;
+	protected volatile String externalIP;
+
+	public Pgateway(PortMapping portMapping, Pstartup startup)
+	{
+		super(portMapping);
+		this.startup = startup;
+	}
+
+	@Override
+	synchronized public void deviceAdded(Registry registry, Device device)
+	{
+		final Service connectionService = discoverConnectionService(device);
+		if (connectionService == null)
+		{
+			return;
+		}
+
+		registry.getUpnpService().getControlPoint().execute(
+			new GetExternalIP(connectionService)
+			{
+				@Override
+				protected void success(String externalIPAddress)
+				{
+					externalIP = externalIPAddress;
+					startup.ready(Pstartup.EXTERNAL_IP, externalIPAddress);
+					System.out.println("Your IP Address: " + externalIPAddress);
+				}
+
+				@Override
+				public void failure(ActionInvocation invocation, UpnpResponse operation, String defaultMsg)
+				{
+					startup.failed(Pstartup.EXTERNAL_IP, defaultMsg);
+				}
+			}
+		);
+
+		super.deviceAdded(registry, device);
+
+		if (!activePortMappings.get(connectionService).isEmpty())
+		{
+			startup.ready(Pstartup.PORT_MAPPING, "on " + device.getDisplayString());
+		}
+		else
+		{
+			startup.failed(Pstartup.PORT_MAPPING, "gateway refused " + portMappings[0]);
+		}
+	}
+
+	public String getExternalIP()
+	{
+		return externalIP;
+	}
+}
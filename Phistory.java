@@ -0,0 +1,298 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only chat history, a directory of memory-mapped segment files.
+ * <p>
+ * Every appended frame gets the next sequence number. A segment file is named after
+ * the sequence number of its first frame, is preallocated to {@link #segmentBytes} and
+ * holds frames back to back in wire format, so a replay is a plain
+ * <code>transferTo</code> of a file range. An append is a copy into the mapped active
+ * segment and an entry in its offset index, it costs the same no matter how much
+ * history there is.
+ * </p>
+ * <p>
+ * The active segment is rolled over when it is full or older than {@link #maxSegmentMillis}.
+ * Sealed segments are deleted when there are more than {@link #maxSegments}, or when their
+ * last message is older than {@link #retentionMillis}. Segments found on startup are sealed,
+ * appending continues with their next sequence number in a new segment.
+ * </p>
+ * <p>
+ * A segment is reference counted like a {@link Pmessage}: the history owns one reference and
+ * every {@link Pregion} handed out for a replay owns another. A deleted segment stays open
+ * until the last peer replaying it releases its region, then the file is closed and removed.
+ * </p>
+ */
+public class Phistory implements Closeable
+{
+	public static final String SUFFIX = ".log";
+
+	public int segmentBytes = 16 << 20;
+	public long maxSegmentMillis = 24L * 60 * 60 * 1000;
+	public int maxSegments = 16;
+	public long retentionMillis = 7L * 24 * 60 * 60 * 1000;
+
+	protected final File dir;
+	protected final List<Segment> segments = new ArrayList<>();
+	protected Segment active;
+	protected long nextSeq;
+
+	public Phistory(File dir) throws IOException
+	{
+		this.dir = dir;
+		if (!dir.isDirectory() && !dir.mkdirs())
+		{
+			throw new IOException("Can't create history directory: " + dir);
+		}
+		recover();
+	}
+
+	/**
+	 * Stamps the encoded frame with the next sequence number and appends a copy to the log.
+	 *
+	 * @return The sequence number of the frame.
+	 */
+	public synchronized long append(ByteBuffer frame) throws IOException
+	{
+		Pframe.sequence(frame, nextSeq);
+		long now = System.currentTimeMillis();
+		if (active == null || !active.fits(frame.remaining()) || now - active.created > maxSegmentMillis)
+		{
+			roll(frame.remaining(), now);
+		}
+		active.append(frame.duplicate(), now);
+		return nextSeq++;
+	}
+
+	/**
+	 * Collects the file ranges holding all frames after the given sequence number.
+	 *
+	 * @param afterSeq The last sequence number the peer has seen, frames older than the
+	 *                 retained history are silently skipped.
+	 * @param regions  Receives the ranges, oldest first.
+	 * @return The sequence number of the first frame <em>not</em> covered by the ranges.
+	 */
+	public synchronized long since(long afterSeq, List<Pregion> regions)
+	{
+		long first = afterSeq + 1;
+		for (Segment segment : segments)
+		{
+			if (segment.baseSeq + segment.count <= first)
+			{
+				continue;
+			}
+			int from = first <= segment.baseSeq ? 0 : segment.offsets[(int) (first - segment.baseSeq)];
+			if (segment.written > from)
+			{
+				segment.retain();
+				regions.add(new Pregion(segment, from, segment.written - from));
+			}
+		}
+		return nextSeq;
+	}
+
+	public synchronized long getNextSequence()
+	{
+		return nextSeq;
+	}
+
+	/**
+	 * Releases the history's reference to every segment, segments still being replayed are
+	 * closed when their last region is released.
+	 */
+	public synchronized void close()
+	{
+		for (Segment segment : segments)
+		{
+			segment.release();
+		}
+		segments.clear();
+		active = null;
+	}
+
+	protected void roll(int frameBytes, long now) throws IOException
+	{
+		if (active != null)
+		{
+			active.map.force();
+		}
+		File file = new File(dir, String.format("%020d", nextSeq) + SUFFIX);
+		active = new Segment(file, nextSeq, Math.max(segmentBytes, frameBytes), now);
+		segments.add(active);
+
+		while (segments.size() > 1
+			&& (segments.size() > maxSegments || segments.get(0).lastAppend < now - retentionMillis))
+		{
+			segments.remove(0).discard();
+		}
+	}
+
+	protected void recover() throws IOException
+	{
+		File[] files = dir.listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String name)
+			{
+				return name.endsWith(SUFFIX);
+			}
+		});
+		Arrays.sort(files);
+		for (File file : files)
+		{
+			long baseSeq;
+			try
+			{
+				baseSeq = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+			}
+			catch (NumberFormatException e)
+			{
+				continue;
+			}
+			Segment segment = new Segment(file, baseSeq);
+			if (segment.count == 0)
+			{
+				segment.discard();
+				continue;
+			}
+			segments.add(segment);
+			nextSeq = Math.max(nextSeq, segment.baseSeq + segment.count);
+		}
+	}
+
+	/**
+	 * One segment file, with the offset of every frame indexed by its sequence number.
+	 */
+	protected static class Segment
+	{
+		protected final File file;
+		protected final long baseSeq;
+		protected final long created;
+		protected final RandomAccessFile raf;
+		protected final FileChannel channel;
+		protected MappedByteBuffer map;
+		protected int written;
+		protected int[] offsets = new int[1024];
+		protected int count;
+		protected long lastAppend;
+		protected final AtomicInteger refs = new AtomicInteger(1);
+		protected volatile boolean discarded;
+
+		/**
+		 * Creates and maps a new, preallocated segment.
+		 */
+		protected Segment(File file, long baseSeq, int size, long now) throws IOException
+		{
+			this.file = file;
+			this.baseSeq = baseSeq;
+			this.created = now;
+			this.lastAppend = now;
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(size);
+			channel = raf.getChannel();
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		/**
+		 * Opens an existing segment read-only and rebuilds its index, stopping at the
+		 * first zeroed or truncated frame.
+		 */
+		protected Segment(File file, long baseSeq) throws IOException
+		{
+			this.file = file;
+			this.baseSeq = baseSeq;
+			this.created = file.lastModified();
+			this.lastAppend = created;
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int limit = existing.limit();
+			while (written + Pframe.HEADER_BYTES <= limit)
+			{
+				int length = existing.getInt(written);
+				byte type = existing.get(written + 4);
+				if (type == Pframe.END || length < 0 || length > limit - written - Pframe.HEADER_BYTES)
+				{
+					break;
+				}
+				index(written);
+				written += Pframe.HEADER_BYTES + length;
+			}
+		}
+
+		protected boolean fits(int frameBytes)
+		{
+			return map != null && frameBytes <= map.capacity() - written;
+		}
+
+		protected void append(ByteBuffer frame, long now)
+		{
+			index(written);
+			map.position(written);
+			written += frame.remaining();
+			map.put(frame);
+			lastAppend = now;
+		}
+
+		protected void index(int offset)
+		{
+			if (count == offsets.length)
+			{
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			offsets[count++] = offset;
+		}
+
+		protected void retain()
+		{
+			refs.incrementAndGet();
+		}
+
+		/**
+		 * Closes the file when the last reference is gone, and deletes it if it was discarded.
+		 */
+		protected void release()
+		{
+			if (refs.decrementAndGet() != 0)
+			{
+				return;
+			}
+			try
+			{
+				close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Could not close history segment: " + file + " (" + e + ")");
+			}
+			if (discarded && !file.delete())
+			{
+				System.err.println("Could not delete history segment: " + file);
+			}
+		}
+
+		/**
+		 * Releases the history's reference, the file is deleted once no replay reads it anymore.
+		 */
+		protected void discard()
+		{
+			discarded = true;
+			release();
+		}
+
+		protected void close() throws IOException
+		{
+			if (map != null)
+			{
+				map.force();
+				map = null;
+			}
+			raf.close();
+		}
+	}
+}
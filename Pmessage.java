@@ -0,0 +1,56 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One outgoing frame, encoded once into a pooled buffer and shared by all peers.
+ * <p>
+ * Every holder of the message owns a reference, each peer gets its own read-only
+ * {@link #view()} with an independent position. The buffer goes back to the pool
+ * when the last reference is released.
+ * </p>
+ */
+public class Pmessage
+{
+	protected final Pbuffers pool;
+	protected final ByteBuffer frame;
+	protected final AtomicInteger refs = new AtomicInteger(1);
+
+	public Pmessage(Pbuffers pool, ByteBuffer frame)
+	{
+		this.pool = pool;
+		this.frame = frame;
+	}
+
+	/**
+	 * @return A message holding the encoded frame, with one reference owned by the caller.
+	 */
+	public static Pmessage encode(Pbuffers pool, byte type, long sender, long timestamp, byte[] payload)
+	{
+		ByteBuffer frame = pool.acquire(Pframe.HEADER_BYTES + payload.length);
+		Pframe.encode(frame, type, sender, 0, timestamp, payload);
+		return new Pmessage(pool, frame);
+	}
+
+	public ByteBuffer view()
+	{
+		return frame.asReadOnlyBuffer();
+	}
+
+	public long getSequence()
+	{
+		return Pframe.sequenceOf(frame);
+	}
+
+	public void retain()
+	{
+		refs.incrementAndGet();
+	}
+
+	public void release()
+	{
+		if (refs.decrementAndGet() == 0)
+		{
+			pool.release(frame);
+		}
+	}
+}
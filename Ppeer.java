@@ -0,0 +1,164 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * State of one connected chat peer, only ever touched by the {@link Pworker} owning it.
+ */
+public class Ppeer
+{
+	public static final int MAX_GATHER = 64;
+
+	protected final SocketChannel channel;
+	protected final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+	protected final ArrayDeque<Pmessage> messages = new ArrayDeque<>();
+	protected final ArrayDeque<Pregion> backlog = new ArrayDeque<>();
+	protected final ByteBuffer in = ByteBuffer.allocate(64);
+	protected boolean live;
+	protected long resumeEnd;
+	protected long dropped;
+	protected SelectionKey key;
+	protected String name;
+
+	public Ppeer(SocketChannel channel)
+	{
+		this.channel = channel;
+		try
+		{
+			name = String.valueOf(channel.getRemoteAddress());
+		}
+		catch (IOException e)
+		{
+			name = "peer";
+		}
+	}
+
+	/**
+	 * Appends a view of the shared message and asks the selector for write readiness.
+	 *
+	 * @return <code>false</code> if the queue is at its limit, the message was not queued.
+	 */
+	public boolean queue(Pmessage message, int limit)
+	{
+		if (outbound.size() >= limit)
+		{
+			return false;
+		}
+		message.retain();
+		outbound.add(message.view());
+		messages.add(message);
+		writable();
+		return true;
+	}
+
+	/**
+	 * Gives up all queued messages and history regions, called when the peer is closed.
+	 */
+	public void release()
+	{
+		Pregion region;
+		while ((region = backlog.poll()) != null)
+		{
+			region.release();
+		}
+		outbound.clear();
+		Pmessage message;
+		while ((message = messages.poll()) != null)
+		{
+			message.release();
+		}
+	}
+
+	/**
+	 * Starts live delivery after the peer said where it left off.
+	 *
+	 * @param regions  The history the peer missed, sent before any live message.
+	 * @param nextSeq  Live messages older than this are already part of the history.
+	 */
+	public void resume(List<Pregion> regions, long nextSeq)
+	{
+		backlog.addAll(regions);
+		resumeEnd = nextSeq;
+		live = true;
+		writable();
+	}
+
+	/**
+	 * @return <code>true</code> if a live message with this sequence number should be queued.
+	 */
+	public boolean accepts(long seq)
+	{
+		return live && seq >= resumeEnd;
+	}
+
+	protected void writable()
+	{
+		if (key.isValid())
+		{
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Writes as much of the queue as the socket takes without blocking.
+	 * <p>
+	 * Replayed history goes first, straight from the log files. Frames which piled up
+	 * since the last write readiness go out together, with one gathering write per batch
+	 * of up to {@link #MAX_GATHER} frames.
+	 * </p>
+	 *
+	 * @param gather Scratch array of the calling worker.
+	 * @return <code>true</code> if the queue was drained.
+	 */
+	public boolean flush(ByteBuffer[] gather) throws IOException
+	{
+		while (!backlog.isEmpty())
+		{
+			if (!backlog.peek().transferTo(channel))
+			{
+				return false;
+			}
+			backlog.poll().release();
+		}
+		while (!outbound.isEmpty())
+		{
+			int count = 0;
+			for (ByteBuffer frame : outbound)
+			{
+				gather[count++] = frame;
+				if (count == gather.length)
+				{
+					break;
+				}
+			}
+			channel.write(gather, 0, count);
+			boolean partial = gather[count - 1].hasRemaining();
+			Arrays.fill(gather, 0, count, null);
+			while (!outbound.isEmpty() && !outbound.peek().hasRemaining())
+			{
+				outbound.poll();
+				messages.poll().release();
+			}
+			if (partial)
+			{
+				return false;
+			}
+		}
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		return true;
+	}
+
+	public boolean hasPending()
+	{
+		return !outbound.isEmpty() || !backlog.isEmpty();
+	}
+
+	public String toString()
+	{
+		return name;
+	}
+}
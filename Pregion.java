@@ -0,0 +1,62 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of a {@link Phistory} segment file, streamed to a peer with <code>transferTo</code>.
+ * <p>
+ * The region owns a reference to its segment, which keeps the file open until the region
+ * is released, even if the history deletes the segment meanwhile.
+ * </p>
+ */
+public class Pregion
+{
+	protected final Phistory.Segment segment;
+	protected final FileChannel file;
+	protected long position;
+	protected long remaining;
+
+	/**
+	 * @param segment A segment already retained for this region.
+	 */
+	public Pregion(Phistory.Segment segment, long position, long count)
+	{
+		this.segment = segment;
+		this.file = segment.channel;
+		this.position = position;
+		this.remaining = count;
+	}
+
+	/**
+	 * Sends as much as the target takes without blocking.
+	 *
+	 * @return <code>true</code> if the whole region has been sent.
+	 */
+	public boolean transferTo(WritableByteChannel target) throws IOException
+	{
+		while (remaining > 0)
+		{
+			long sent = file.transferTo(position, remaining, target);
+			if (sent <= 0)
+			{
+				return false;
+			}
+			position += sent;
+			remaining -= sent;
+		}
+		return true;
+	}
+
+	public long getRemaining()
+	{
+		return remaining;
+	}
+
+	/**
+	 * Gives up the reference to the segment, called once when the region was sent or dropped.
+	 */
+	public void release()
+	{
+		segment.release();
+	}
+}
@@ -1,18 +1,54 @@
 import java.lang.*;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.teleal.cling.DefaultUpnpServiceConfiguration;
 import org.teleal.cling.UpnpService;
 import org.teleal.cling.UpnpServiceImpl;
 import org.teleal.cling.support.model.PortMapping;
 import org.teleal.cling.support.igd.PortMappingListener;
 
+/**
+ * Chat room server, accepts any number of peers on one non-blocking
+ * <code>ServerSocketChannel</code>.
+ * <p>
+ * Connections are spread round-robin over a small, fixed set of {@link Pworker}
+ * selector threads, the first of which also owns the accept key. Every line typed
+ * on stdin is sent to all connected peers as a {@link Pframe}.
+ * </p>
+ * <p>
+ * Each peer queues at most {@link #peerQueueLimit} messages. When a slow reader is at the
+ * limit, further messages are dropped for that peer, or the peer is disconnected if
+ * {@link #disconnectSlowPeers} is set. Either way it can't hold up the rest of the room.
+ * </p>
+ */
 public class Pserver implements Runnable
 {
 
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
 	public int port = 1234;
+	public int backlog = 1024;
+	public int ioThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
 	public String username;
-	protected Thread thread = new Thread(this, "Server");
+	public long senderId = new Random().nextLong();
+	public Pstartup startup = new Pstartup();
+	protected Thread thread = Pthreads.create(this, "Server");
+	protected volatile UpnpService upnpService;
+
+	public File historyDir = new File("history");
+	public int peerQueueLimit = 1024;
+	public boolean disconnectSlowPeers = false;
+	protected final Pbuffers buffers = new Pbuffers(4096, 1024);
+	protected Phistory history;
+	protected ServerSocketChannel svr;
+	protected Pworker[] workers;
+	protected final AtomicInteger nextWorker = new AtomicInteger();
+	protected final AtomicInteger peers = new AtomicInteger();
 
 	public Pserver (String username)
 	{
@@ -27,46 +63,171 @@ public class Pserver implements Runnable
 
 	public void run(
 )	{ try{
-		PortMapping desiredMapping =
-	    new PortMapping(port, InetAddress.getLocalHost().getHostAddress(), PortMapping.Protocol.TCP, "Pchat Port Hole");
-		UpnpService upnpService = new UpnpServiceImpl(new PortMappingListener(desiredMapping));
-		upnpService.getControlPoint().search();
+		open();
 		Scanner in = new Scanner(System.in);
-		//System.out.print("Username? ");
-		//String username = in.nextLine() +": ";
-		System.out.println("");
-		ServerSocket svr = new ServerSocket(port);
-		Socket sckt = svr.accept();
-		PrintWriter send = new PrintWriter(sckt.getOutputStream(), true);
-		System.out.println("Connected...");
 		System.out.println("");
 		String mssg = "";
 		Boolean done = false;
 		while(!done)
 			{
 			mssg = in.nextLine().trim();
-			send.print(username + mssg + "\n");
-			send.flush();
+			broadcast(username + mssg);
 			if (mssg.equals("/exit"))
 			{
 				done = true;
 			}
 			}
-		send.close();
-	    sckt.close();
-	    svr.close();
+		close();
 	 	System.out.println("Disconnected");
 	 	}
-	catch(Exception e) 
+	catch(Exception e)
  		{
          System.out.println("Server Error!");
       	}
 
   	}
+
+	/**
+	 * Opens the listening socket right away, port mapping and the external address lookup
+	 * continue in the background and report to {@link #startup} when done.
+	 */
+	public synchronized void open() throws IOException
+	{
+		if (svr != null)
+		{
+			return;
+		}
+		listen();
+		startup.ready(Pstartup.SOCKET, "on port " + port);
+
+		Thread gateway = Pthreads.create(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					PortMapping desiredMapping =
+						new PortMapping(port, InetAddress.getLocalHost().getHostAddress(), PortMapping.Protocol.TCP, "Pchat Port Hole");
+					upnpService = new UpnpServiceImpl(new DefaultUpnpServiceConfiguration(), new Pgateway(desiredMapping, startup));
+					startup.ready(Pstartup.UPNP, null);
+					upnpService.getControlPoint().search();
+				}
+				catch (Exception e)
+				{
+					startup.failed(Pstartup.UPNP, String.valueOf(e));
+				}
+			}
+		}, "Gateway");
+		gateway.setDaemon(true);
+		gateway.start();
+	}
+
+	/**
+	 * Opens the history, binds the listening channel and starts the I/O threads.
+	 */
+	protected void listen() throws IOException
+	{
+		history = new Phistory(historyDir);
+
+		svr = ServerSocketChannel.open();
+		svr.configureBlocking(false);
+		svr.socket().setReuseAddress(true);
+		svr.socket().bind(new InetSocketAddress(port), backlog);
+		port = svr.socket().getLocalPort();
+
+		workers = new Pworker[ioThreads];
+		for (int i = 0; i < workers.length; i++)
+		{
+			workers[i] = new Pworker(this, "Server-IO-" + i);
+		}
+		workers[0].accept(svr);
+		for (Pworker worker : workers)
+		{
+			worker.start();
+		}
+	}
+
+	/**
+	 * Frames the message once into a pooled buffer, appends it to the history and shares it
+	 * with every connected peer, the actual writes happen on the I/O threads.
+	 */
+	public void broadcast(String mssg) throws IOException
+	{
+		broadcast(mssg.getBytes(UTF8));
+	}
+
+	public void broadcast(byte[] payload) throws IOException
+	{
+		Pmessage message = Pmessage.encode(buffers, Pframe.TEXT, senderId, System.currentTimeMillis(), payload);
+		try
+		{
+			// Peers must see the messages in history order, or they drop the older one as seen
+			synchronized (history)
+			{
+				history.append(message.frame);
+				for (Pworker worker : workers)
+				{
+					worker.broadcast(message);
+				}
+			}
+		}
+		finally
+		{
+			message.release();
+		}
+	}
+
+	/**
+	 * Flushes what is still queued for the peers, closes all channels and releases the port mapping.
+	 */
+	public void close() throws IOException
+	{
+		svr.close();
+		if (upnpService != null)
+		{
+			// Removes the port mapping from the gateway again
+			upnpService.shutdown();
+		}
+		for (Pworker worker : workers)
+		{
+			worker.shutdown();
+		}
+		for (Pworker worker : workers)
+		{
+			try
+			{
+				worker.thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		history.close();
+	}
+
+	/**
+	 * Called on the accepting I/O thread, picks the worker which will own the new peer.
+	 */
+	protected Pworker nextWorker()
+	{
+		return workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+	}
+
+	protected void connected(Ppeer peer)
+	{
+		System.out.println("Connected: " + peer + " (" + peers.incrementAndGet() + " online)");
+	}
+
+	protected void disconnected(Ppeer peer)
+	{
+		System.out.println("Disconnected: " + peer + " (" + peers.decrementAndGet() + " online)");
+	}
+
   	protected void start()
   	{
   		thread.start();
   	}
 
-  	
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,53 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports readiness of the chat startup stages as they complete, in whatever order that is.
+ * <p>
+ * Every stage is timed from the creation of this object, the numbers are kept for
+ * {@link #getStageMillis()} and printed once.
+ * </p>
+ */
+public class Pstartup
+{
+	public static final String SOCKET = "socket";
+	public static final String UPNP = "upnp";
+	public static final String PORT_MAPPING = "port mapping";
+	public static final String EXTERNAL_IP = "external ip";
+
+	protected final long started = System.nanoTime();
+	protected final Map<String, Long> stageMillis = new LinkedHashMap<>();
+
+	/**
+	 * Records the stage as complete, only the first report of a stage counts.
+	 */
+	public synchronized void ready(String stage, String detail)
+	{
+		if (stageMillis.containsKey(stage))
+		{
+			return;
+		}
+		long millis = (System.nanoTime() - started) / 1000000;
+		stageMillis.put(stage, millis);
+		System.out.println("Ready: " + stage + (detail != null ? " " + detail : "") + " (" + millis + " ms)");
+	}
+
+	public void failed(String stage, String reason)
+	{
+		System.out.println("Startup: " + stage + " failed, " + reason);
+	}
+
+	public synchronized boolean isReady(String stage)
+	{
+		return stageMillis.containsKey(stage);
+	}
+
+	/**
+	 * @return The completed stages, in order of completion, with milliseconds since startup began.
+	 */
+	public synchronized Map<String, Long> getStageMillis()
+	{
+		return Collections.unmodifiableMap(new LinkedHashMap<>(stageMillis));
+	}
+}
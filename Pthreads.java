@@ -0,0 +1,68 @@
+import java.lang.reflect.Method;
+
+/**
+ * Creates the blocking chat threads, on virtual threads if started with
+ * <code>-Dpchat.virtualThreads=true</code> and the JVM supports them.
+ * <p>
+ * Virtual threads are looked up through reflection, so the chat still builds and runs on
+ * JVMs without them, where platform threads are created instead. This is the same lookup as
+ * Cling's <code>ClingVirtualThreadFactory</code>, which the shipped cling-core jar doesn't have
+ * yet. Cling's own protocol threads stay platform threads until the chat is built against a
+ * rebuilt cling-core jar.
+ * </p>
+ */
+public class Pthreads
+{
+	public static final boolean VIRTUAL = Boolean.getBoolean("pchat.virtualThreads");
+
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_UNSTARTED;
+	static
+	{
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderUnstarted = null;
+		try
+		{
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builderClass.getMethod("name", String.class);
+			builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+		}
+		catch (Exception e)
+		{
+			// Not supported by this JVM
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_UNSTARTED = builderUnstarted;
+	}
+
+	public static Thread create(Runnable runnable, String name)
+	{
+		Thread thread = VIRTUAL ? newVirtualThread(runnable, name) : null;
+		return thread != null ? thread : new Thread(runnable, name);
+	}
+
+	/**
+	 * @return A new unstarted virtual thread, or <code>null</code> if the JVM doesn't support them.
+	 */
+	public static Thread newVirtualThread(Runnable runnable, String name)
+	{
+		if (OF_VIRTUAL == null)
+		{
+			return null;
+		}
+		try
+		{
+			Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+			return (Thread) BUILDER_UNSTARTED.invoke(builder, runnable);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread of the {@link Pserver}, multiplexing reads and writes of its peers.
+ * <p>
+ * Other threads never touch the peers directly, they hand tasks to {@link #execute(Runnable)}
+ * and the selector is woken up to run them.
+ * </p>
+ */
+public class Pworker implements Runnable
+{
+	public static final long SHUTDOWN_GRACE_MILLIS = 2000;
+
+	protected final Pserver server;
+	protected final Selector selector;
+	protected final Thread thread;
+	protected final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	protected final Set<Ppeer> peers = new LinkedHashSet<>();
+	protected final Pframe frame = new Pframe();
+	protected final ByteBuffer[] gather = new ByteBuffer[Ppeer.MAX_GATHER];
+	protected volatile long closeDeadline;
+
+	public Pworker(Pserver server, String name) throws IOException
+	{
+		this.server = server;
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+	}
+
+	public void start()
+	{
+		thread.start();
+	}
+
+	public void execute(Runnable task)
+	{
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Registers the listening channel with this worker, must be called before {@link #start()}.
+	 */
+	public void accept(ServerSocketChannel svr) throws ClosedChannelException
+	{
+		svr.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	public void register(final SocketChannel channel)
+	{
+		execute(new Runnable()
+		{
+			public void run()
+			{
+				Ppeer peer = new Ppeer(channel);
+				try
+				{
+					peer.key = channel.register(selector, SelectionKey.OP_READ, peer);
+				}
+				catch (IOException e)
+				{
+					closeQuietly(channel);
+					return;
+				}
+				peers.add(peer);
+				server.connected(peer);
+			}
+		});
+	}
+
+	/**
+	 * Queues the shared message on every live peer, applying the server's slow peer policy.
+	 */
+	public void broadcast(final Pmessage message)
+	{
+		final long seq = message.getSequence();
+		message.retain();
+		execute(new Runnable()
+		{
+			public void run()
+			{
+				List<Ppeer> slow = null;
+				for (Ppeer peer : peers)
+				{
+					if (!peer.accepts(seq) || peer.queue(message, server.peerQueueLimit))
+					{
+						continue;
+					}
+					if (server.disconnectSlowPeers)
+					{
+						if (slow == null)
+						{
+							slow = new ArrayList<>();
+						}
+						slow.add(peer);
+					}
+					else
+					{
+						peer.dropped++;
+					}
+				}
+				message.release();
+				if (slow != null)
+				{
+					for (Ppeer peer : slow)
+					{
+						System.out.println("Disconnecting slow peer: " + peer);
+						close(peer);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the worker once all queued messages have been written, or the grace period is over.
+	 */
+	public void shutdown()
+	{
+		execute(new Runnable()
+		{
+			public void run()
+			{
+				closeDeadline = System.currentTimeMillis() + SHUTDOWN_GRACE_MILLIS;
+			}
+		});
+	}
+
+	public void run()
+	{
+		try
+		{
+			while (true)
+			{
+				if (closeDeadline > 0)
+				{
+					if (!hasPending() || System.currentTimeMillis() >= closeDeadline)
+					{
+						break;
+					}
+					selector.select(100);
+				}
+				else
+				{
+					selector.select();
+				}
+
+				Runnable task;
+				while ((task = tasks.poll()) != null)
+				{
+					task.run();
+				}
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext())
+				{
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+					{
+						continue;
+					}
+					if (key.isAcceptable())
+					{
+						accept(key);
+						continue;
+					}
+					Ppeer peer = (Ppeer) key.attachment();
+					try
+					{
+						if (key.isReadable())
+						{
+							read(peer);
+						}
+						if (key.isValid() && key.isWritable())
+						{
+							peer.flush(gather);
+						}
+					}
+					catch (IOException e)
+					{
+						close(peer);
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.println("Server Error!");
+		}
+		finally
+		{
+			for (Ppeer peer : new ArrayList<>(peers))
+			{
+				close(peer);
+			}
+			closeQuietly(selector);
+		}
+	}
+
+	/**
+	 * A failed connection is closed and logged, it never stops the server from accepting others.
+	 */
+	protected void accept(SelectionKey key)
+	{
+		ServerSocketChannel svr = (ServerSocketChannel) key.channel();
+		// Drain the whole accept backlog in one go, connections tend to arrive in bursts
+		while (true)
+		{
+			SocketChannel channel;
+			try
+			{
+				channel = svr.accept();
+			}
+			catch (IOException e)
+			{
+				// Out of file descriptors for example, try again on the next select
+				System.err.println("Server could not accept a connection: " + e);
+				return;
+			}
+			if (channel == null)
+			{
+				return;
+			}
+			try
+			{
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				server.nextWorker().register(channel);
+			}
+			catch (IOException e)
+			{
+				// The client might have reset the connection already
+				System.err.println("Server could not set up a connection: " + e);
+				closeQuietly(channel);
+			}
+		}
+	}
+
+	/**
+	 * Peers only send control frames on this connection, chat text flows the other way.
+	 */
+	protected void read(Ppeer peer) throws IOException
+	{
+		if (peer.channel.read(peer.in) < 0)
+		{
+			close(peer);
+			return;
+		}
+		peer.in.flip();
+		while (frame.decode(peer.in))
+		{
+			if (frame.type == Pframe.RESUME && frame.length == 8)
+			{
+				resume(peer, peer.in.getLong(frame.payloadOffset));
+			}
+		}
+		if (Pframe.required(peer.in) > peer.in.capacity())
+		{
+			throw new IOException("Control frame too large from: " + peer);
+		}
+		peer.in.compact();
+	}
+
+	/**
+	 * Queues the history the peer missed, then switches it to live messages.
+	 */
+	protected void resume(Ppeer peer, long afterSeq)
+	{
+		List<Pregion> regions = new ArrayList<>();
+		long nextSeq;
+		if (afterSeq >= 0)
+		{
+			nextSeq = server.history.since(afterSeq, regions);
+		}
+		else
+		{
+			nextSeq = server.history.getNextSequence();
+		}
+		peer.resume(regions, nextSeq);
+	}
+
+	protected boolean hasPending()
+	{
+		for (Ppeer peer : peers)
+		{
+			if (peer.hasPending())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected void close(Ppeer peer)
+	{
+		if (peers.remove(peer))
+		{
+			peer.key.cancel();
+			peer.release();
+			closeQuietly(peer.channel);
+			server.disconnected(peer);
+		}
+	}
+
+	protected static void closeQuietly(Closeable closeable)
+	{
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing left to do
+		}
+	}
+}
@@ -24,10 +24,17 @@ import org.teleal.cling.binding.xml.UDA10ServiceDescriptorBinderImpl;
 import org.teleal.cling.model.ModelUtil;
 import org.teleal.cling.model.Namespace;
 import org.teleal.cling.model.types.ServiceType;
+import org.teleal.cling.protocol.AnnouncementCache;
+import org.teleal.cling.protocol.SearchResponseScheduler;
+import org.teleal.cling.protocol.RemoteDescriptorCache;
+import org.teleal.cling.transport.impl.DatagramBufferPool;
+import org.teleal.cling.transport.impl.DatagramIOChannelImpl;
 import org.teleal.cling.transport.impl.DatagramIOConfigurationImpl;
 import org.teleal.cling.transport.impl.DatagramIOImpl;
 import org.teleal.cling.transport.impl.DatagramProcessorImpl;
+import org.teleal.cling.transport.impl.DatagramSelector;
 import org.teleal.cling.transport.impl.GENAEventProcessorImpl;
+import org.teleal.cling.transport.impl.MulticastReceiverChannelImpl;
 import org.teleal.cling.transport.impl.MulticastReceiverConfigurationImpl;
 import org.teleal.cling.transport.impl.MulticastReceiverImpl;
 import org.teleal.cling.transport.impl.NetworkAddressFactoryImpl;
@@ -46,13 +53,20 @@ import org.teleal.cling.transport.spi.StreamClient;
 import org.teleal.cling.transport.spi.StreamServer;
 import org.teleal.common.util.Exceptions;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
@@ -66,12 +80,37 @@ import java.util.logging.Logger;
  * {@link org.teleal.cling.binding.xml}.
  * </p>
  * <p>
- * The thread <code>Executor</code> is an <code>Executors.newCachedThreadPool()</code> with
- * a custom {@link ClingThreadFactory} (it only sets a thread name).
+ * The default thread <code>Executor</code> is an <code>Executors.newCachedThreadPool()</code> with
+ * a custom {@link ClingThreadFactory} (it only sets a thread name). It runs the long-running
+ * transport receivers and servers, and the registry maintainer, one thread each.
  * </p>
  * <p>
- * Note that this pool is effectively unlimited, so the number of threads will
- * grow (and shrink) as needed - or restricted by your JVM.
+ * The asynchronous protocols, the synchronous protocols, and the registry listeners each have
+ * their own {@link ClingExecutor} with a fixed number of threads and a bounded queue. When a
+ * pool and its queue are full, asynchronous protocol executions (mostly received UDP datagrams)
+ * and registry listener executions are discarded and logged, while synchronous protocols run on
+ * the submitting thread, slowing it down. Registry listener events of a discarded execution are
+ * not lost, the registry hands them off again on its next maintenance run. Cast the returned
+ * executors to <code>ClingExecutor</code> to read their active threads, queue size, rejections,
+ * and queue latency.
+ * </p>
+ * <p>
+ * Override {@link #isVirtualThreads()} to run the blocking protocol executions, that is
+ * the synchronous and asynchronous protocol executors, on virtual threads. Each is then a
+ * {@link ClingVirtualExecutor}, which starts a virtual thread per execution and limits how many
+ * run at the same time, instead of sizing a pool of platform threads. Executions beyond that
+ * limit wait on their own thread, they never run on the submitting thread. This requires
+ * a JVM with virtual thread support, otherwise the regular thread pools are used.
+ * </p>
+ * <p>
+ * Override {@link #isDatagramChannels()} to receive UDP datagrams on NIO channels, into
+ * direct buffers shared by all channels, instead of allocating a buffer for every datagram.
+ * Additionally override {@link #createDatagramSelector()} to receive on the channels of all
+ * network interfaces with a few selector threads, instead of one blocking thread per channel.
+ * </p>
+ * <p>
+ * Override {@link #createRemoteDescriptorCache()} to keep the descriptors of discovered remote
+ * devices on disk, so they don't have to be retrieved again after a restart.
  * </p>
  * <p>
  * The default {@link org.teleal.cling.model.Namespace} is configured without any
@@ -87,6 +126,11 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     final private int streamListenPort;
 
     final private Executor defaultExecutor;
+    final private Executor asyncProtocolExecutor;
+    final private Executor syncProtocolExecutor;
+    final private Executor registryListenerExecutor;
+    final private DatagramBufferPool datagramBufferPool;
+    final private DatagramSelector datagramSelector;
 
     final private DatagramProcessor datagramProcessor;
     final private SOAPActionProcessor soapActionProcessor;
@@ -97,6 +141,10 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
 
     final private Namespace namespace;
 
+    final private RemoteDescriptorCache remoteDescriptorCache;
+    final private AnnouncementCache announcementCache;
+    final private SearchResponseScheduler searchResponseScheduler;
+
     /**
      * Defaults to port '0', ephemeral.
      */
@@ -120,6 +168,11 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         this.streamListenPort = streamListenPort;
 
         defaultExecutor = createDefaultExecutor();
+        asyncProtocolExecutor = createAsyncProtocolExecutor();
+        syncProtocolExecutor = createSyncProtocolExecutor();
+        registryListenerExecutor = createRegistryListenerExecutor();
+        datagramBufferPool = isDatagramChannels() ? createDatagramBufferPool() : null;
+        datagramSelector = isDatagramChannels() ? createDatagramSelector() : null;
 
         datagramProcessor = createDatagramProcessor();
         soapActionProcessor = createSOAPActionProcessor();
@@ -129,6 +182,10 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         serviceDescriptorBinderUDA10 = createServiceDescriptorBinderUDA10();
 
         namespace = createNamespace();
+
+        remoteDescriptorCache = createRemoteDescriptorCache();
+        announcementCache = createAnnouncementCache();
+        searchResponseScheduler = createSearchResponseScheduler();
     }
 
     public DatagramProcessor getDatagramProcessor() {
@@ -148,16 +205,20 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     }
 
     public MulticastReceiver createMulticastReceiver(NetworkAddressFactory networkAddressFactory) {
-        return new MulticastReceiverImpl(
+        MulticastReceiverConfigurationImpl configuration =
                 new MulticastReceiverConfigurationImpl(
                         networkAddressFactory.getMulticastGroup(),
                         networkAddressFactory.getMulticastPort()
-                )
-        );
+                );
+        return isDatagramChannels()
+                ? new MulticastReceiverChannelImpl(configuration, getDatagramBufferPool(), getDatagramSelector())
+                : new MulticastReceiverImpl(configuration);
     }
 
     public DatagramIO createDatagramIO(NetworkAddressFactory networkAddressFactory) {
-        return new DatagramIOImpl(new DatagramIOConfigurationImpl());
+        return isDatagramChannels()
+                ? new DatagramIOChannelImpl(new DatagramIOConfigurationImpl(), getDatagramBufferPool(), getDatagramSelector())
+                : new DatagramIOImpl(new DatagramIOConfigurationImpl());
     }
 
     public StreamServer createStreamServer(NetworkAddressFactory networkAddressFactory) {
@@ -197,11 +258,11 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     }
 
     public Executor getAsyncProtocolExecutor() {
-        return getDefaultExecutor();
+        return asyncProtocolExecutor;
     }
 
     public Executor getSyncProtocolExecutor() {
-        return getDefaultExecutor();
+        return syncProtocolExecutor;
     }
 
     public Namespace getNamespace() {
@@ -213,7 +274,19 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     }
 
     public Executor getRegistryListenerExecutor() {
-        return getDefaultExecutor();
+        return registryListenerExecutor;
+    }
+
+    public RemoteDescriptorCache getRemoteDescriptorCache() {
+        return remoteDescriptorCache;
+    }
+
+    public AnnouncementCache getAnnouncementCache() {
+        return announcementCache;
+    }
+
+    public SearchResponseScheduler getSearchResponseScheduler() {
+        return searchResponseScheduler;
     }
 
     public NetworkAddressFactory createNetworkAddressFactory() {
@@ -221,9 +294,35 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     }
 
     public void shutdown() {
-        if (getDefaultExecutor() instanceof ThreadPoolExecutor) {
-            log.fine("Shutting down thread pool");
-            ((ThreadPoolExecutor) getDefaultExecutor()).shutdown();
+        // The same pool might be returned for several subsystems
+        Set<Executor> executors = new LinkedHashSet();
+        executors.add(getDefaultExecutor());
+        executors.add(getAsyncProtocolExecutor());
+        executors.add(getSyncProtocolExecutor());
+        executors.add(getRegistryListenerExecutor());
+        for (Executor executor : executors) {
+            if (executor instanceof ThreadPoolExecutor) {
+                log.fine("Shutting down thread pool: " + executor);
+                ((ThreadPoolExecutor) executor).shutdown();
+            } else if (executor instanceof ClingVirtualExecutor) {
+                log.fine("Shutting down virtual thread executor: " + executor);
+                ((ClingVirtualExecutor) executor).shutdown();
+            }
+        }
+        if (getSearchResponseScheduler() != null) {
+            log.fine("Stopping search response scheduler");
+            getSearchResponseScheduler().stop();
+        }
+        if (getDatagramSelector() != null) {
+            log.fine("Stopping datagram selector");
+            getDatagramSelector().stop();
+        }
+        if (getRemoteDescriptorCache() != null) {
+            try {
+                getRemoteDescriptorCache().flush();
+            } catch (IOException ex) {
+                log.warning("Could not write remote descriptor cache: " + ex);
+            }
         }
     }
 
@@ -255,6 +354,56 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         return new Namespace();
     }
 
+    /**
+     * @return <code>true</code> if datagrams should be received on NIO channels, defaults to <code>false</code>.
+     */
+    protected boolean isDatagramChannels() {
+        return false;
+    }
+
+    protected DatagramBufferPool getDatagramBufferPool() {
+        return datagramBufferPool;
+    }
+
+    /**
+     * @return A pool of 640 byte buffers (512 per UDA 1.0, 128 byte header), keeping up to 64 idle buffers.
+     */
+    protected DatagramBufferPool createDatagramBufferPool() {
+        return new DatagramBufferPool(640, 64);
+    }
+
+    protected DatagramSelector getDatagramSelector() {
+        return datagramSelector;
+    }
+
+    /**
+     * Only called if {@link #isDatagramChannels()} is enabled, override and return for example
+     * <code>new DatagramSelector(getDefaultExecutor(), 1)</code> to share one selector thread.
+     *
+     * @return <code>null</code>, each channel is received on its own blocking thread by default.
+     */
+    protected DatagramSelector createDatagramSelector() {
+        return null;
+    }
+
+    /**
+     * @return <code>null</code>, remote device descriptors are not cached by default.
+     */
+    protected RemoteDescriptorCache createRemoteDescriptorCache() {
+        return null;
+    }
+
+    protected AnnouncementCache createAnnouncementCache() {
+        return new AnnouncementCache();
+    }
+
+    /**
+     * @return A scheduler with two threads, at most 1024 pending search responses and 16 for each source address.
+     */
+    protected SearchResponseScheduler createSearchResponseScheduler() {
+        return new SearchResponseScheduler();
+    }
+
     protected Executor getDefaultExecutor() {
         return defaultExecutor;
     }
@@ -263,10 +412,105 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         return new ClingExecutor();
     }
 
+    /**
+     * @return <code>true</code> if protocols should be executed on virtual threads, defaults to <code>false</code>.
+     */
+    protected boolean isVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * @return 16 threads and 1024 queued executions, further executions are discarded. With virtual
+     *         threads 256 concurrent and 1024 waiting executions, further executions are discarded.
+     */
+    protected Executor createAsyncProtocolExecutor() {
+        if (isVirtualThreadsSupported()) {
+            return new ClingVirtualExecutor(256, 1024, new ClingVirtualThreadFactory("cling-async-"));
+        }
+        return new ClingExecutor(
+                16, 1024,
+                new ClingThreadFactory("cling-async-"),
+                new ThreadPoolExecutor.DiscardPolicy() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
+                        // Log and discard, a lost datagram is no different from one lost on the network
+                        log.warning(
+                                "Thread pool saturated, discarding execution " +
+                                "of '" + runnable.getClass() + "', consider raising the " +
+                                "maximum pool or queue size"
+                        );
+                        super.rejectedExecution(runnable, threadPoolExecutor);
+                    }
+                }
+        );
+    }
+
+    /**
+     * @return 32 threads and 256 queued executions, further executions run on the submitting thread. With
+     *         virtual threads 1024 concurrent executions, any number of further executions wait for them.
+     */
+    protected Executor createSyncProtocolExecutor() {
+        if (isVirtualThreadsSupported()) {
+            // Never discarded, a received HTTP request would not get a response
+            return new ClingVirtualExecutor(1024, Integer.MAX_VALUE, new ClingVirtualThreadFactory("cling-sync-"));
+        }
+        return new ClingExecutor(
+                32, 256,
+                new ClingThreadFactory("cling-sync-"),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+    }
+
+    /**
+     * @return 4 threads and 1024 queued executions, further executions are discarded.
+     */
+    protected Executor createRegistryListenerExecutor() {
+        return new ClingExecutor(
+                4, 1024,
+                new ClingThreadFactory("cling-listener-"),
+                new ThreadPoolExecutor.DiscardPolicy() {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor threadPoolExecutor) {
+                        // Never run on the submitting thread, it might hold the registry or a subscription lock
+                        log.warning(
+                                "Thread pool saturated, discarding execution " +
+                                "of '" + runnable.getClass() + "', consider raising the " +
+                                "maximum pool or queue size"
+                        );
+                        super.rejectedExecution(runnable, threadPoolExecutor);
+                    }
+                }
+        );
+    }
+
+    protected boolean isVirtualThreadsSupported() {
+        if (!isVirtualThreads()) {
+            return false;
+        }
+        if (!ClingVirtualThreadFactory.isSupported()) {
+            log.warning("Virtual threads are not supported by this JVM, using platform threads");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * A thread pool which counts rejected executions and measures how long executions wait
+     * before they are started.
+     */
     public static class ClingExecutor extends ThreadPoolExecutor {
 
+        final protected AtomicLong rejectedCount = new AtomicLong();
+        final protected AtomicLong startedCount = new AtomicLong();
+        final protected AtomicLong totalLatencyNanos = new AtomicLong();
+        final protected AtomicLong maxLatencyNanos = new AtomicLong();
+
         public ClingExecutor() {
-            this(new ClingThreadFactory(),
+            this(new ClingThreadFactory());
+        }
+
+        public ClingExecutor(ThreadFactory threadFactory) {
+            this(threadFactory,
                  new ThreadPoolExecutor.DiscardPolicy() {
                      // The pool is unbounded but rejections will happen during shutdown
                      @Override
@@ -287,8 +531,41 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
                   TimeUnit.SECONDS,
                   new SynchronousQueue<Runnable>(),
                   threadFactory,
-                  rejectedHandler
+                  new CountingRejectedHandler(rejectedHandler)
+            );
+        }
+
+        /**
+         * A fixed number of threads, which time out when idle, and a bounded queue. The rejection
+         * handler is called when all threads are busy and the queue is full.
+         */
+        public ClingExecutor(int threads, int queueSize, ThreadFactory threadFactory, RejectedExecutionHandler rejectedHandler) {
+            super(threads,
+                  threads,
+                  60L,
+                  TimeUnit.SECONDS,
+                  new ArrayBlockingQueue<Runnable>(queueSize),
+                  threadFactory,
+                  new CountingRejectedHandler(rejectedHandler)
             );
+            allowCoreThreadTimeOut(true);
+        }
+
+        @Override
+        public void execute(Runnable runnable) {
+            super.execute(new SubmittedRunnable(runnable));
+        }
+
+        @Override
+        protected void beforeExecute(Thread thread, Runnable runnable) {
+            super.beforeExecute(thread, runnable);
+            if (runnable instanceof SubmittedRunnable) {
+                long latency = System.nanoTime() - ((SubmittedRunnable) runnable).submittedNanos;
+                startedCount.incrementAndGet();
+                totalLatencyNanos.addAndGet(latency);
+                long max;
+                while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) ;
+            }
         }
 
         @Override
@@ -300,6 +577,231 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
                 log.warning("Root cause: " + Exceptions.unwrap(throwable));
             }
         }
+
+        public int getQueueSize() {
+            return getQueue().size();
+        }
+
+        /**
+         * @return The number of executions passed to the rejection handler, because the pool was saturated or shut down.
+         */
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+
+        /**
+         * @return The average milliseconds an execution waited before it was started by a pool thread.
+         */
+        public double getAverageLatencyMillis() {
+            long started = startedCount.get();
+            return started > 0 ? totalLatencyNanos.get() / (started * 1000000d) : 0;
+        }
+
+        /**
+         * @return The longest an execution waited before it was started by a pool thread.
+         */
+        public long getMaxLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName()
+                    + " active: " + getActiveCount()
+                    + ", pool: " + getPoolSize()
+                    + ", queued: " + getQueueSize()
+                    + ", completed: " + getCompletedTaskCount()
+                    + ", rejected: " + getRejectedCount()
+                    + ", max latency ms: " + getMaxLatencyMillis();
+        }
+
+        protected static class SubmittedRunnable implements Runnable {
+
+            final protected Runnable runnable;
+            final protected long submittedNanos = System.nanoTime();
+
+            public SubmittedRunnable(Runnable runnable) {
+                this.runnable = runnable;
+            }
+
+            public void run() {
+                runnable.run();
+            }
+
+            @Override
+            public String toString() {
+                return runnable.toString();
+            }
+        }
+
+        protected static class CountingRejectedHandler implements RejectedExecutionHandler {
+
+            final protected RejectedExecutionHandler handler;
+
+            public CountingRejectedHandler(RejectedExecutionHandler handler) {
+                this.handler = handler;
+            }
+
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                if (executor instanceof ClingExecutor) {
+                    ((ClingExecutor) executor).rejectedCount.incrementAndGet();
+                }
+                if (runnable instanceof SubmittedRunnable) {
+                    runnable = ((SubmittedRunnable) runnable).runnable;
+                }
+                handler.rejectedExecution(runnable, executor);
+            }
+        }
+    }
+
+    /**
+     * Starts a new thread for every execution, typically a virtual thread, and limits how many
+     * executions run at the same time with a semaphore.
+     * <p>
+     * An execution beyond the concurrency limit waits for a permit on its own thread, which is cheap
+     * with virtual threads. Only executions beyond the waiting limit, and executions after shutdown,
+     * are discarded and logged. Nothing runs on the submitting thread.
+     * </p>
+     */
+    public static class ClingVirtualExecutor implements Executor {
+
+        final protected ThreadFactory threadFactory;
+        final protected int concurrency;
+        final protected Semaphore running;
+        final protected Semaphore admitted;
+        final protected int admittedLimit;
+        protected volatile boolean shutdown;
+
+        final protected AtomicLong rejectedCount = new AtomicLong();
+        final protected AtomicLong startedCount = new AtomicLong();
+        final protected AtomicLong totalLatencyNanos = new AtomicLong();
+        final protected AtomicLong maxLatencyNanos = new AtomicLong();
+
+        /**
+         * @param concurrency The number of executions running at the same time.
+         * @param waiting     The number of executions waiting for a running one to finish.
+         */
+        public ClingVirtualExecutor(int concurrency, int waiting, ThreadFactory threadFactory) {
+            this.threadFactory = threadFactory;
+            this.concurrency = concurrency;
+            this.admittedLimit = (int) Math.min(Integer.MAX_VALUE, (long) concurrency + waiting);
+            this.running = new Semaphore(concurrency);
+            this.admitted = new Semaphore(admittedLimit);
+        }
+
+        public void execute(final Runnable runnable) {
+            if (shutdown) {
+                rejectedCount.incrementAndGet();
+                log.info("Executor is shut down, discarding execution of " + runnable.getClass());
+                return;
+            }
+            if (!admitted.tryAcquire()) {
+                rejectedCount.incrementAndGet();
+                log.warning(
+                        "Executor saturated, discarding execution " +
+                        "of '" + runnable.getClass() + "', consider raising the " +
+                        "concurrency or waiting limit"
+                );
+                return;
+            }
+            final long submittedNanos = System.nanoTime();
+            try {
+                threadFactory.newThread(new Runnable() {
+                    public void run() {
+                        try {
+                            running.acquireUninterruptibly();
+                            try {
+                                started(System.nanoTime() - submittedNanos);
+                                runnable.run();
+                            } catch (RuntimeException ex) {
+                                // Log only
+                                log.warning("Thread terminated " + runnable + " abruptly with exception: " + ex);
+                                log.warning("Root cause: " + Exceptions.unwrap(ex));
+                            } finally {
+                                running.release();
+                            }
+                        } finally {
+                            admitted.release();
+                        }
+                    }
+                }).start();
+            } catch (RuntimeException ex) {
+                admitted.release();
+                throw ex;
+            }
+        }
+
+        protected void started(long latency) {
+            startedCount.incrementAndGet();
+            totalLatencyNanos.addAndGet(latency);
+            long max;
+            while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) ;
+        }
+
+        /**
+         * Discards all further executions, executions already submitted still run.
+         */
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        /**
+         * @return The number of executions running now.
+         */
+        public int getActiveCount() {
+            return concurrency - running.availablePermits();
+        }
+
+        /**
+         * @return The number of executions waiting for a running one to finish.
+         */
+        public int getQueueSize() {
+            return Math.max(0, admittedLimit - admitted.availablePermits() - getActiveCount());
+        }
+
+        /**
+         * @return The number of discarded executions, because the executor was saturated or shut down.
+         */
+        public long getRejectedCount() {
+            return rejectedCount.get();
+        }
+
+        public long getStartedCount() {
+            return startedCount.get();
+        }
+
+        /**
+         * @return The average milliseconds an execution waited before it was started.
+         */
+        public double getAverageLatencyMillis() {
+            long started = startedCount.get();
+            return started > 0 ? totalLatencyNanos.get() / (started * 1000000d) : 0;
+        }
+
+        /**
+         * @return The longest an execution waited before it was started.
+         */
+        public long getMaxLatencyMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+        }
+
+        @Override
+        public String toString() {
+            return getClass().getSimpleName()
+                    + " active: " + getActiveCount()
+                    + ", queued: " + getQueueSize()
+                    + ", started: " + getStartedCount()
+                    + ", rejected: " + getRejectedCount()
+                    + ", max latency ms: " + getMaxLatencyMillis();
+        }
     }
 
     // Executors.DefaultThreadFactory is package visibility (...no touching, you unworthy JDK user!)
@@ -307,11 +809,16 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
 
         protected final ThreadGroup group;
         protected final AtomicInteger threadNumber = new AtomicInteger(1);
-        protected final String namePrefix = "cling-";
+        protected final String namePrefix;
 
         public ClingThreadFactory() {
+            this("cling-");
+        }
+
+        public ClingThreadFactory(String namePrefix) {
             SecurityManager s = System.getSecurityManager();
             group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
+            this.namePrefix = namePrefix;
         }
 
         public Thread newThread(Runnable r) {
@@ -328,4 +835,65 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
             return t;
         }
     }
+
+    /**
+     * Creates virtual threads, named like the threads of {@link ClingThreadFactory}.
+     * <p>
+     * Virtual threads are only available on recent JVMs, they are accessed through reflection. If
+     * the JVM doesn't support them, this factory creates regular platform threads.
+     * </p>
+     */
+    public static class ClingVirtualThreadFactory extends ClingThreadFactory {
+
+        final private static Method OF_VIRTUAL;
+        final private static Method BUILDER_NAME;
+        final private static Method BUILDER_UNSTARTED;
+        static {
+            Method ofVirtual = null;
+            Method builderName = null;
+            Method builderUnstarted = null;
+            try {
+                Class builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                builderName = builderClass.getMethod("name", String.class);
+                builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+            } catch (Exception ex) {
+                // Ignore, not supported
+                ofVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            BUILDER_NAME = builderName;
+            BUILDER_UNSTARTED = builderUnstarted;
+        }
+
+        public ClingVirtualThreadFactory() {
+        }
+
+        public ClingVirtualThreadFactory(String namePrefix) {
+            super(namePrefix);
+        }
+
+        public static boolean isSupported() {
+            return OF_VIRTUAL != null;
+        }
+
+        /**
+         * @return A new unstarted virtual thread, or <code>null</code> if the JVM doesn't support virtual threads.
+         */
+        public static Thread newVirtualThread(Runnable r, String name) {
+            if (!isSupported()) return null;
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, r);
+            } catch (Exception ex) {
+                throw new RuntimeException("Can't create virtual thread: " + Exceptions.unwrap(ex), ex);
+            }
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            if (!isSupported()) return super.newThread(r);
+            return newVirtualThread(r, namePrefix + threadNumber.getAndIncrement());
+        }
+    }
 }
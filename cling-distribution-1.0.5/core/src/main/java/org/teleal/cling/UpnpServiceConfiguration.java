@@ -22,6 +22,9 @@ import org.teleal.cling.binding.xml.ServiceDescriptorBinder;
 import org.teleal.cling.model.Namespace;
 import org.teleal.cling.model.types.ServiceId;
 import org.teleal.cling.model.types.ServiceType;
+import org.teleal.cling.protocol.AnnouncementCache;
+import org.teleal.cling.protocol.SearchResponseScheduler;
+import org.teleal.cling.protocol.RemoteDescriptorCache;
 import org.teleal.cling.transport.spi.DatagramIO;
 import org.teleal.cling.transport.spi.DatagramProcessor;
 import org.teleal.cling.transport.spi.GENAEventProcessor;
@@ -168,6 +171,24 @@ public interface UpnpServiceConfiguration {
      */
     public Executor getRegistryListenerExecutor();
 
+    /**
+     * @return The on-disk cache of remote device descriptors, or <code>null</code> if every
+     *         discovered device should be described over HTTP.
+     */
+    public RemoteDescriptorCache getRemoteDescriptorCache();
+
+    /**
+     * @return The cache of written notification datagrams of local devices, or <code>null</code> if
+     *         notification messages should be created and written every time they are sent.
+     */
+    public AnnouncementCache getAnnouncementCache();
+
+    /**
+     * @return The timer which delays responses to received search requests, or <code>null</code> if
+     *         the receiving protocol thread should sleep before responding.
+     */
+    public SearchResponseScheduler getSearchResponseScheduler();
+
     /**
      * Called by the {@link org.teleal.cling.UpnpService} on shutdown, useful to e.g. shutdown thread pools.
      */
@@ -29,8 +29,10 @@ import org.teleal.cling.model.message.StreamRequestMessage;
 import org.teleal.cling.model.message.StreamResponseMessage;
 import org.teleal.cling.model.message.header.UpnpHeader;
 import org.teleal.cling.model.meta.LocalDevice;
+import org.teleal.cling.protocol.AnnouncementCache;
 import org.teleal.cling.protocol.ProtocolFactory;
 import org.teleal.cling.protocol.ProtocolFactoryImpl;
+import org.teleal.cling.protocol.SearchResponseScheduler;
 import org.teleal.cling.protocol.async.SendingNotificationAlive;
 import org.teleal.cling.protocol.async.SendingSearch;
 import org.teleal.cling.registry.Registry;
@@ -42,6 +44,7 @@ import org.teleal.cling.transport.spi.NetworkAddressFactory;
 import org.teleal.cling.transport.spi.StreamClient;
 import org.teleal.cling.transport.spi.UpnpStream;
 
+import java.net.DatagramPacket;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
@@ -79,6 +82,7 @@ public class MockUpnpService implements UpnpService {
 
     private List<IncomingDatagramMessage> incomingDatagramMessages = new ArrayList();
     private List<OutgoingDatagramMessage> outgoingDatagramMessages = new ArrayList();
+    private List<DatagramPacket> outgoingDatagramPackets = new ArrayList();
     private List<UpnpStream> receivedUpnpStreams = new ArrayList();
     private List<StreamRequestMessage> sentStreamRequestMessages = new ArrayList();
     private List<byte[]> broadcastedBytes = new ArrayList();
@@ -129,6 +133,33 @@ public class MockUpnpService implements UpnpService {
                 return createDefaultExecutor();
             }
 
+            @Override
+            protected AnnouncementCache createAnnouncementCache() {
+                // Notifications should be recorded as messages
+                return null;
+            }
+
+            @Override
+            protected SearchResponseScheduler createSearchResponseScheduler() {
+                // Search responses should be sent on the single thread of execution
+                return null;
+            }
+
+            @Override
+            protected Executor createAsyncProtocolExecutor() {
+                return createDefaultExecutor();
+            }
+
+            @Override
+            protected Executor createSyncProtocolExecutor() {
+                return createDefaultExecutor();
+            }
+
+            @Override
+            protected Executor createRegistryListenerExecutor() {
+                return createDefaultExecutor();
+            }
+
             @Override
             protected Executor createDefaultExecutor() {
                 return multiThreaded
@@ -258,6 +289,10 @@ public class MockUpnpService implements UpnpService {
                 outgoingDatagramMessages.add(msg);
             }
 
+            public void send(DatagramPacket datagram) {
+                outgoingDatagramPackets.add(datagram);
+            }
+
             public StreamResponseMessage send(StreamRequestMessage msg) {
                 sentStreamRequestMessages.add(msg);
                 counter++;
@@ -305,6 +340,10 @@ public class MockUpnpService implements UpnpService {
         return outgoingDatagramMessages;
     }
 
+    public List<DatagramPacket> getOutgoingDatagramPackets() {
+        return outgoingDatagramPackets;
+    }
+
     public List<UpnpStream> getReceivedUpnpStreams() {
         return receivedUpnpStreams;
     }
@@ -66,6 +66,17 @@ public class ExpirationDetails {
                 (lastRefreshTimestampSeconds + (maxAgeSeconds/(halfTime ? 2 : 1))) < getCurrentTimestampSeconds();
     }
 
+    /**
+     * @param halfTime If <code>true</code> then half maximum age is used to determine expiration.
+     * @return The earliest time in milliseconds at which {@link #hasExpired(boolean)} returns <code>true</code>,
+     *         or <code>0</code> if the age is unlimited.
+     */
+    public long getExpirationTimestampMillis(boolean halfTime) {
+        return maxAgeSeconds == UNLIMITED_AGE
+                ? 0
+                : (lastRefreshTimestampSeconds + (maxAgeSeconds/(halfTime ? 2 : 1)) + 1) * 1000;
+    }
+
     public long getSecondsUntilExpiration() {
         // Note: Uses direct field access for performance reasons on Android
         return maxAgeSeconds == UNLIMITED_AGE
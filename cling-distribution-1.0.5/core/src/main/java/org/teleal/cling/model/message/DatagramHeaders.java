@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.model.message;
+
+import org.teleal.cling.model.message.header.UpnpHeader;
+import org.teleal.common.http.Headers;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Headers of a received UDP datagram, scanned once and materialized only when accessed.
+ * <p>
+ * The constructor records the offsets of each header name and value in the raw message bytes,
+ * no strings are created. Typed access with {@link #getFirstHeader(UpnpHeader.Type)} and
+ * {@link #getFirstHeader(String)} matches header names case-insensitively on these bytes, and
+ * only creates the value strings of the requested header. Any other (multi-map) access parses
+ * all headers like {@link org.teleal.common.http.Headers} does, this is also the fallback if a
+ * header line is folded or otherwise not a plain <code>Name: Value</code> line.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class DatagramHeaders extends UpnpHeaders {
+
+    // HTTP headers are US-ASCII, never fail on other bytes
+    static final private Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    final protected byte[] data;
+    final protected int start;
+    final protected int end;
+
+    // Name start, name end, value start, value end, for each header line
+    protected int[] offsets = new int[4 * 12];
+    protected int count;
+    protected boolean inflated;
+
+    /**
+     * Scans the header lines, up to the first blank line.
+     *
+     * @param data  The raw message, not copied, must not be modified afterwards.
+     * @param start The offset of the first header line, after the start line.
+     * @param end   The end of the message data.
+     */
+    public DatagramHeaders(byte[] data, int start, int end) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+
+        int pos = start;
+        while (pos < end) {
+            int lineEnd = indexOf(data, (byte) '\n', pos, end);
+            int nextLine = lineEnd + 1;
+            if (lineEnd > pos && data[lineEnd - 1] == '\r') lineEnd--;
+            if (lineEnd == pos) break; // Blank line
+
+            int colon = indexOf(data, (byte) ':', pos, lineEnd);
+            if (colon == lineEnd || data[pos] == ' ' || data[pos] == '\t'
+                    || indexOf(data, (byte) '\r', pos, lineEnd) != lineEnd) {
+                // Not a simple header line, let the regular parser handle it
+                inflate();
+                return;
+            }
+            addOffsets(pos, colon, colon + 1, lineEnd);
+            pos = nextLine;
+        }
+    }
+
+    protected void addOffsets(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+        while (nameStart < nameEnd && data[nameStart] <= ' ') nameStart++;
+        while (nameEnd > nameStart && data[nameEnd - 1] <= ' ') nameEnd--;
+        while (valueStart < valueEnd && data[valueStart] <= ' ') valueStart++;
+        while (valueEnd > valueStart && data[valueEnd - 1] <= ' ') valueEnd--;
+
+        if (count * 4 == offsets.length) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        offsets[count * 4] = nameStart;
+        offsets[count * 4 + 1] = nameEnd;
+        offsets[count * 4 + 2] = valueStart;
+        offsets[count * 4 + 3] = valueEnd;
+        count++;
+    }
+
+    /**
+     * @return The value strings of all header lines with the given name, <code>null</code> if there are none.
+     */
+    protected List<String> getValues(String name) {
+        List<String> values = null;
+        for (int i = 0; i < count; i++) {
+            if (equalsIgnoreCase(data, offsets[i * 4], offsets[i * 4 + 1], name)) {
+                if (values == null) values = new ArrayList<String>(1);
+                values.add(getValue(i));
+            }
+        }
+        return values;
+    }
+
+    protected String getValue(int i) {
+        int valueStart = offsets[i * 4 + 2];
+        int valueEnd = offsets[i * 4 + 3];
+        // Like the regular parser, an empty value is null
+        return valueStart == valueEnd ? null : new String(data, valueStart, valueEnd - valueStart, CHARSET);
+    }
+
+    /**
+     * Parses all header lines into the multi-map, once.
+     */
+    protected void inflate() {
+        if (inflated) return;
+        inflated = true;
+        Headers parsed = new Headers(new ByteArrayInputStream(data, start, end - start));
+        for (Map.Entry<String, List<String>> entry : parsed.entrySet()) {
+            super.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    protected List<String> getRawValues(UpnpHeader.Type type) {
+        return inflated ? super.getRawValues(type) : getValues(type.getHttpName());
+    }
+
+    @Override
+    public String getFirstHeader(String key) {
+        if (inflated) return super.getFirstHeader(key);
+        for (int i = 0; i < count; i++) {
+            if (equalsIgnoreCase(data, offsets[i * 4], offsets[i * 4 + 1], key)) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        inflate();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        inflate();
+        return super.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        inflate();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        inflate();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        inflate();
+        return super.get(key);
+    }
+
+    @Override
+    public List<String> put(String key, List<String> values) {
+        inflate();
+        return super.put(key, values);
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        inflate();
+        return super.remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends List<String>> map) {
+        inflate();
+        super.putAll(map);
+    }
+
+    @Override
+    public void clear() {
+        inflate();
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        inflate();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<List<String>> values() {
+        inflate();
+        return super.values();
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        inflate();
+        return super.entrySet();
+    }
+
+    @Override
+    public void add(String key, String value) {
+        inflate();
+        super.add(key, value);
+    }
+
+    @Override
+    public void set(String key, String value) {
+        inflate();
+        super.set(key, value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        inflate();
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        inflate();
+        return super.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        inflate();
+        return super.toString();
+    }
+
+    static public int indexOf(byte[] data, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == b) return i;
+        }
+        return to;
+    }
+
+    /**
+     * Compares US-ASCII bytes with a string, ignoring case, without creating a string.
+     */
+    static public boolean equalsIgnoreCase(byte[] data, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            int b = data[from + i];
+            int c = s.charAt(i);
+            if (b != c && toUpperCase(b) != toUpperCase(c)) return false;
+        }
+        return true;
+    }
+
+    static protected int toUpperCase(int c) {
+        return c >= 'a' && c <= 'z' ? c - ('a' - 'A') : c;
+    }
+
+}
@@ -21,6 +21,7 @@ import org.teleal.cling.model.message.header.UpnpHeader;
 import org.teleal.common.http.Headers;
 
 import java.io.ByteArrayInputStream;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -50,36 +51,51 @@ public class UpnpHeaders extends Headers {
         super(inputStream);
     }
 
-    protected void parseHeaders() {
-        // This runs as late as possible and only when necessary (getter called and map is dirty)
-        parsedHeaders = new LinkedHashMap();
-        log.fine("Parsing all HTTP headers for known UPnP headers: " + size());
-        for (Entry<String, List<String>> entry : entrySet()) {
-
-            if (entry.getKey() == null) continue; // Oh yes, the JDK has 'null' HTTP headers
-
-            UpnpHeader.Type type = UpnpHeader.Type.getByHttpName(entry.getKey());
-            if (type == null) {
-                log.fine("Ignoring non-UPNP HTTP header: " + entry.getKey());
-                continue;
-            }
-
-            for (String value : entry.getValue()) {
-                UpnpHeader upnpHeader = UpnpHeader.newInstance(type, value);
-                if (upnpHeader == null || upnpHeader.getValue() == null) {
-                    log.fine("Ignoring known but non-parsable header (value violates the UDA specification?) '" +
-                            type.getHttpName() + "': " + value);
-                } else {
-                    addParsedValue(type, upnpHeader);
-                }
+    /**
+     * Parses the values of the given header type, only when necessary (getter called and values
+     * of this type not parsed yet or map is dirty).
+     */
+    protected List<UpnpHeader> getParsedHeaders(UpnpHeader.Type type) {
+        if (parsedHeaders == null) parsedHeaders = new LinkedHashMap();
+        List<UpnpHeader> list = parsedHeaders.get(type);
+        if (list == null) {
+            list = parseHeaders(type);
+            parsedHeaders.put(type, list);
+        }
+        return list;
+    }
+
+    protected List<UpnpHeader> parseHeaders(UpnpHeader.Type type) {
+        List<String> values = getRawValues(type);
+        if (values == null) return Collections.EMPTY_LIST;
+
+        List<UpnpHeader> list = new LinkedList();
+        for (String value : values) {
+            UpnpHeader upnpHeader = UpnpHeader.newInstance(type, value);
+            if (upnpHeader == null || upnpHeader.getValue() == null) {
+                log.fine("Ignoring known but non-parsable header (value violates the UDA specification?) '" +
+                        type.getHttpName() + "': " + value);
+            } else {
+                if (log.isLoggable(Level.FINE))
+                    log.fine("Adding parsed header: " + upnpHeader);
+                list.add(upnpHeader);
             }
         }
+        return list;
+    }
+
+    /**
+     * @return The unparsed values of all HTTP headers with the name of the given type, or <code>null</code>.
+     */
+    protected List<String> getRawValues(UpnpHeader.Type type) {
+        // The multi-map normalizes the case of header names
+        return super.get(type.getHttpName());
     }
 
     protected void addParsedValue(UpnpHeader.Type type, UpnpHeader value) {
         log.fine("Adding parsed header: " + value);
         List<UpnpHeader> list = parsedHeaders.get(type);
-        if (list == null) {
+        if (list == null || list.isEmpty()) {
             list = new LinkedList();
             parsedHeaders.put(type, list);
         }
@@ -111,18 +127,18 @@ public class UpnpHeaders extends Headers {
     }
 
     public boolean containsKey(UpnpHeader.Type type) {
-        if (parsedHeaders == null) parseHeaders();
-        return parsedHeaders.containsKey(type);
+        return !getParsedHeaders(type).isEmpty();
     }
 
     public List<UpnpHeader> get(UpnpHeader.Type type) {
-        if (parsedHeaders == null) parseHeaders();
-        return parsedHeaders.get(type);
+        List<UpnpHeader> list = getParsedHeaders(type);
+        return list.isEmpty() ? null : list;
     }
 
     public void add(UpnpHeader.Type type, UpnpHeader value) {
         super.add(type.getHttpName(), value.getString());
-        if (parsedHeaders != null)
+        // If this type hasn't been parsed yet, the raw value will be parsed when needed
+        if (parsedHeaders != null && parsedHeaders.containsKey(type))
             addParsedValue(type, value);
     }
 
@@ -133,23 +149,17 @@ public class UpnpHeaders extends Headers {
     }
 
     public UpnpHeader[] getAsArray(UpnpHeader.Type type) {
-        if (parsedHeaders == null) parseHeaders();
-        return parsedHeaders.get(type) != null
-                ? parsedHeaders.get(type).toArray(new UpnpHeader[parsedHeaders.get(type).size()])
-                : new UpnpHeader[0];
+        List<UpnpHeader> list = getParsedHeaders(type);
+        return list.toArray(new UpnpHeader[list.size()]);
     }
 
     public UpnpHeader getFirstHeader(UpnpHeader.Type type) {
-        return getAsArray(type).length > 0
-                ? getAsArray(type)[0]
-                : null;
+        List<UpnpHeader> list = getParsedHeaders(type);
+        return list.isEmpty() ? null : list.get(0);
     }
 
     public <H extends UpnpHeader> H getFirstHeader(UpnpHeader.Type type, Class<H> subtype) {
-        UpnpHeader[] headers = getAsArray(type);
-        if (headers.length == 0) return null;
-
-        for (UpnpHeader header : headers) {
+        for (UpnpHeader header : getParsedHeaders(type)) {
             if (subtype.isAssignableFrom(header.getClass())) {
                 return (H) header;
             }
@@ -169,6 +179,7 @@ public class UpnpHeaders extends Headers {
             if (parsedHeaders != null && parsedHeaders.size() > 0) {
                 log.fine("########################## PARSED HEADERS ##########################");
                 for (Map.Entry<UpnpHeader.Type, List<UpnpHeader>> entry : parsedHeaders.entrySet()) {
+                    if (entry.getValue().isEmpty()) continue;
                     log.fine("=== TYPE: " + entry.getKey());
                     for (UpnpHeader upnpHeader : entry.getValue()) {
                         log.fine("HEADER: " + upnpHeader);
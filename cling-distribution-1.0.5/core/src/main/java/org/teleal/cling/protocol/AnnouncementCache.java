@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.protocol;
+
+import org.teleal.cling.model.Location;
+import org.teleal.cling.model.meta.LocalDevice;
+import org.teleal.cling.model.types.NotificationSubtype;
+import org.teleal.cling.model.types.UDN;
+
+import java.net.DatagramPacket;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the written SSDP notification datagrams of local devices, so they can be sent again without
+ * creating and writing the messages.
+ * <p>
+ * The datagrams of a root device, including its embedded devices and services, are kept for each
+ * descriptor {@link Location} and {@link NotificationSubtype}. They are only returned for the same
+ * <code>LocalDevice</code> instance, a device registered again with the same UDN doesn't see the
+ * datagrams of the previous instance. Call {@link #retainLocations(LocalDevice, Collection)} when the
+ * active stream servers might have changed, and {@link #remove(LocalDevice)} when the device is gone.
+ * </p>
+ * <p>
+ * The cached datagrams are shared by all sending threads and must not be modified.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class AnnouncementCache {
+
+    final private static Logger log = Logger.getLogger(AnnouncementCache.class.getName());
+
+    final protected Map<UDN, DeviceAnnouncements> devices = new HashMap();
+
+    synchronized public List<DatagramPacket> get(LocalDevice device, Location location, NotificationSubtype subtype) {
+        DeviceAnnouncements announcements = devices.get(device.getIdentity().getUdn());
+        if (announcements == null || announcements.device != device) return null;
+        Map<NotificationSubtype, List<DatagramPacket>> bySubtype = announcements.locations.get(location);
+        return bySubtype != null ? bySubtype.get(subtype) : null;
+    }
+
+    synchronized public void put(LocalDevice device, Location location, NotificationSubtype subtype, List<DatagramPacket> datagrams) {
+        UDN udn = device.getIdentity().getUdn();
+        DeviceAnnouncements announcements = devices.get(udn);
+        if (announcements == null || announcements.device != device) {
+            announcements = new DeviceAnnouncements(device);
+            devices.put(udn, announcements);
+        }
+        Map<NotificationSubtype, List<DatagramPacket>> bySubtype = announcements.locations.get(location);
+        if (bySubtype == null) {
+            bySubtype = new HashMap();
+            announcements.locations.put(location, bySubtype);
+        }
+        bySubtype.put(subtype, datagrams);
+    }
+
+    /**
+     * Drops the datagrams of the device for any descriptor location not in the given collection.
+     */
+    synchronized public void retainLocations(LocalDevice device, Collection<Location> locations) {
+        DeviceAnnouncements announcements = devices.get(device.getIdentity().getUdn());
+        if (announcements == null) return;
+        Iterator<Location> it = announcements.locations.keySet().iterator();
+        while (it.hasNext()) {
+            Location location = it.next();
+            if (!locations.contains(location)) {
+                log.fine("Stream server no longer active, dropping cached notifications for: " + location);
+                it.remove();
+            }
+        }
+    }
+
+    synchronized public void remove(LocalDevice device) {
+        devices.remove(device.getIdentity().getUdn());
+    }
+
+    synchronized public void clear() {
+        devices.clear();
+    }
+
+    /**
+     * @return The number of cached datagram lists, for all devices, locations, and subtypes.
+     */
+    synchronized public int size() {
+        int size = 0;
+        for (DeviceAnnouncements announcements : devices.values()) {
+            for (Map<NotificationSubtype, List<DatagramPacket>> bySubtype : announcements.locations.values()) {
+                size += bySubtype.size();
+            }
+        }
+        return size;
+    }
+
+    static protected class DeviceAnnouncements {
+
+        final protected LocalDevice device;
+        final protected Map<Location, Map<NotificationSubtype, List<DatagramPacket>>> locations = new HashMap();
+
+        protected DeviceAnnouncements(LocalDevice device) {
+            this.device = device;
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.protocol;
+
+import org.teleal.cling.model.types.UDN;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the XML descriptors of discovered remote devices on disk, for a warm start of the control point.
+ * <p>
+ * An entry holds the device descriptor and all service descriptors of a root device, keyed by its
+ * UDN and only valid for the same descriptor URL. {@link RetrieveRemoteDescriptors} hydrates a device
+ * from a cached entry without any HTTP requests and revalidates the device descriptor in the background.
+ * </p>
+ * <p>
+ * The file is a compact binary format, memory-mapped when the cache is opened. Only the UDNs and
+ * URLs are decoded then, the descriptors of an entry are decoded when the entry is used. Changes are
+ * kept in memory until {@link #flush()}, which replaces the file. Entries stored longer ago than
+ * the maximum age are dropped when the cache is opened.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class RemoteDescriptorCache {
+
+    final private static Logger log = Logger.getLogger(RemoteDescriptorCache.class.getName());
+
+    public static final int MAGIC = 0x434c4443; // "CLDC"
+    public static final int VERSION = 1;
+
+    final private static Charset UTF8 = Charset.forName("UTF-8");
+
+    final protected File file;
+    final protected long maxAgeMillis;
+    final protected Map<UDN, Entry> entries = new ConcurrentHashMap();
+    protected volatile boolean dirty;
+
+    /**
+     * Opens the cache, reading the given file if it exists.
+     *
+     * @param file         The cache file, its directory is created on the first flush.
+     * @param maxAgeMillis Entries stored longer ago are dropped, <code>0</code> keeps them forever.
+     */
+    public RemoteDescriptorCache(File file, long maxAgeMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+        if (file.exists()) {
+            try {
+                read();
+            } catch (Exception ex) {
+                log.log(Level.WARNING, "Ignoring unreadable remote descriptor cache: " + file, ex);
+                entries.clear();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The cached descriptors of the device, or <code>null</code> if there are none for this
+     *         descriptor URL.
+     */
+    public Entry get(UDN udn, String descriptorURL) {
+        Entry entry = entries.get(udn);
+        return entry != null && entry.getDescriptorURL().equals(descriptorURL) ? entry : null;
+    }
+
+    public void put(UDN udn, String descriptorURL, String deviceDescriptor, Map<String, String> serviceDescriptors) {
+        Map<String, Object> services = new HashMap(serviceDescriptors);
+        entries.put(udn, new Entry(udn, descriptorURL, System.currentTimeMillis(), deviceDescriptor, services));
+        dirty = true;
+    }
+
+    public void remove(UDN udn) {
+        if (entries.remove(udn) != null)
+            dirty = true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes all entries to a temporary file and replaces the cache file with it, if anything changed.
+     */
+    synchronized public void flush() throws IOException {
+        if (!dirty) return;
+        // Cleared before the entries are copied, a concurrent put() marks the cache dirty again
+        dirty = false;
+        boolean written = false;
+        try {
+            write();
+            written = true;
+        } finally {
+            if (!written) dirty = true;
+        }
+        log.fine("Wrote remote descriptor cache with " + entries.size() + " devices: " + file);
+    }
+
+    protected void write() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory of remote descriptor cache: " + parent);
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            Entry[] current = entries.values().toArray(new Entry[entries.size()]);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(current.length);
+            for (Entry entry : current) {
+                write(out, entry.getUdn().getIdentifierString());
+                write(out, entry.getDescriptorURL());
+                out.writeLong(entry.getStoredMillis());
+                write(out, entry.getDeviceDescriptor());
+                out.writeInt(entry.services.size());
+                for (Map.Entry<String, Object> service : entry.services.entrySet()) {
+                    write(out, service.getKey());
+                    write(out, entry.getServiceDescriptor(service.getKey()));
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            // Not atomic but the best we can do if the platform doesn't replace files on rename
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Can't replace remote descriptor cache: " + file);
+            }
+        }
+    }
+
+    protected void read() throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid
+            raf.close();
+        }
+
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            log.info("Ignoring remote descriptor cache with unknown format: " + file);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            UDN udn = UDN.valueOf(readString(buffer));
+            String descriptorURL = readString(buffer);
+            long storedMillis = buffer.getLong();
+            ByteBuffer deviceDescriptor = readBytes(buffer);
+            int serviceCount = buffer.getInt();
+            Map<String, Object> services = new HashMap();
+            for (int j = 0; j < serviceCount; j++) {
+                services.put(readString(buffer), readBytes(buffer));
+            }
+            if (maxAgeMillis > 0 && storedMillis < now - maxAgeMillis) {
+                dirty = true;
+                continue;
+            }
+            entries.put(udn, new Entry(udn, descriptorURL, storedMillis, deviceDescriptor, services));
+        }
+        log.fine("Read remote descriptor cache with " + entries.size() + " devices: " + file);
+    }
+
+    static protected void write(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static protected ByteBuffer readBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Truncated remote descriptor cache");
+        }
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(length);
+        buffer.position(buffer.position() + length);
+        return bytes;
+    }
+
+    static protected String readString(ByteBuffer buffer) throws IOException {
+        return decode(readBytes(buffer));
+    }
+
+    static protected String decode(ByteBuffer bytes) {
+        return UTF8.decode(bytes.duplicate()).toString();
+    }
+
+    /**
+     * The descriptors of a root device and its embedded devices.
+     * <p>
+     * Descriptors read from the cache file are decoded from the mapped file when they are first used.
+     * </p>
+     */
+    public static class Entry {
+
+        final private UDN udn;
+        final private String descriptorURL;
+        final private long storedMillis;
+        private Object deviceDescriptor;
+        final private Map<String, Object> services;
+
+        protected Entry(UDN udn, String descriptorURL, long storedMillis,
+                        Object deviceDescriptor, Map<String, Object> services) {
+            this.udn = udn;
+            this.descriptorURL = descriptorURL;
+            this.storedMillis = storedMillis;
+            this.deviceDescriptor = deviceDescriptor;
+            this.services = services;
+        }
+
+        public UDN getUdn() {
+            return udn;
+        }
+
+        public String getDescriptorURL() {
+            return descriptorURL;
+        }
+
+        public long getStoredMillis() {
+            return storedMillis;
+        }
+
+        synchronized public String getDeviceDescriptor() {
+            if (deviceDescriptor instanceof ByteBuffer) {
+                deviceDescriptor = decode((ByteBuffer) deviceDescriptor);
+            }
+            return (String) deviceDescriptor;
+        }
+
+        /**
+         * @param descriptorURL The absolute URL of the service descriptor.
+         * @return The service descriptor, or <code>null</code> if it is not cached.
+         */
+        synchronized public String getServiceDescriptor(String descriptorURL) {
+            Object descriptor = services.get(descriptorURL);
+            if (descriptor instanceof ByteBuffer) {
+                descriptor = decode((ByteBuffer) descriptor);
+                services.put(descriptorURL, descriptor);
+            }
+            return (String) descriptor;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + getClass().getSimpleName() + ") UDN: " + getUdn() + ", URL: " + getDescriptorURL();
+        }
+    }
+
+}
@@ -36,7 +36,9 @@ import org.teleal.common.util.Exceptions;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Logger;
@@ -58,6 +60,12 @@ import java.util.logging.Logger;
  * Any descriptor retrieval, parsing, or validation error of the metadata will abort this protocol
  * with a warning message in the log.
  * </p>
+ * <p>
+ * If a {@link RemoteDescriptorCache} is configured and holds the descriptors of the device for the
+ * same descriptor URL, the device is hydrated from the cache without any HTTP requests. Once the device
+ * has been added to the registry, the device descriptor is retrieved again by the same protocol execution,
+ * if it changed, the device is removed from the registry and described again.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -68,6 +76,10 @@ public class RetrieveRemoteDescriptors implements Runnable {
     private final UpnpService upnpService;
     private RemoteDevice rd;
 
+    // The service descriptors used for hydration, by absolute URL
+    private final Map<String, String> serviceDescriptors = new HashMap();
+    private RemoteDescriptorCache.Entry cachedEntry;
+
     private static final Set<URL> activeRetrievals = new CopyOnWriteArraySet();
 
     public RetrieveRemoteDescriptors(UpnpService upnpService, RemoteDevice rd) {
@@ -113,6 +125,22 @@ public class RetrieveRemoteDescriptors implements Runnable {
         // steps - all of this could be done with one and it wouldn't make a difference. So every
         // call of this method has to be really necessary and rare.
 
+        RemoteDescriptorCache cache = getUpnpService().getConfiguration().getRemoteDescriptorCache();
+        if (cache != null) {
+            cachedEntry = cache.get(rd.getIdentity().getUdn(), rd.getIdentity().getDescriptorURL().toString());
+            if (cachedEntry != null) {
+                log.fine("Hydrating remote device from cached descriptors: " + cachedEntry);
+                if (describe(cachedEntry.getDeviceDescriptor())) {
+                    // Not handed to the executor, a saturated executor would silently discard it
+                    revalidate(cache, cachedEntry);
+                    return;
+                }
+                log.info("Cached descriptors are not usable, retrieving them again: " + cachedEntry);
+                cache.remove(cachedEntry.getUdn());
+                cachedEntry = null;
+            }
+        }
+
         StreamRequestMessage deviceDescRetrievalMsg =
                 new StreamRequestMessage(UpnpRequest.Method.GET, rd.getIdentity().getDescriptorURL());
 
@@ -140,10 +168,66 @@ public class RetrieveRemoteDescriptors implements Runnable {
         }
 
         log.fine("Received root device descriptor: " + deviceDescMsg);
-        describe(deviceDescMsg.getBodyString());
+        String descriptorXML = deviceDescMsg.getBodyString();
+        if (describe(descriptorXML) && cache != null) {
+            cache.put(
+                    rd.getIdentity().getUdn(),
+                    rd.getIdentity().getDescriptorURL().toString(),
+                    descriptorXML,
+                    serviceDescriptors
+            );
+        }
+    }
+
+    /**
+     * Retrieves the device descriptor of a device hydrated from the cache and compares it with the cached one.
+     * <p>
+     * If the device can't be reached the cache entry is dropped, the device will expire in the registry
+     * unless it announces itself again. If the descriptor changed, the device is removed from the registry
+     * and described again.
+     * </p>
+     */
+    protected void revalidate(RemoteDescriptorCache cache, RemoteDescriptorCache.Entry entry) {
+        StreamRequestMessage deviceDescRetrievalMsg =
+                new StreamRequestMessage(UpnpRequest.Method.GET, rd.getIdentity().getDescriptorURL());
+
+        log.fine("Revalidating cached device descriptor: " + entry);
+        StreamResponseMessage deviceDescMsg = getUpnpService().getRouter().send(deviceDescRetrievalMsg);
+
+        if (deviceDescMsg == null || deviceDescMsg.getOperation().isFailed()) {
+            log.fine("Revalidation of cached device descriptor failed, dropping cache entry: " + entry);
+            cache.remove(entry.getUdn());
+            return;
+        }
+
+        String descriptorXML = deviceDescMsg.getBodyString();
+        if (entry.getDeviceDescriptor().equals(descriptorXML)) {
+            log.fine("Cached device descriptor is still valid: " + entry);
+            return;
+        }
+
+        log.info("Device descriptor changed, describing device again: " + rd);
+        cache.remove(entry.getUdn());
+        RemoteDevice registeredDevice = getUpnpService().getRegistry().getRemoteDevice(entry.getUdn(), true);
+        if (registeredDevice != null) {
+            getUpnpService().getRegistry().removeDevice(registeredDevice);
+        }
+        cachedEntry = null;
+        serviceDescriptors.clear();
+        if (describe(descriptorXML)) {
+            cache.put(
+                    rd.getIdentity().getUdn(),
+                    rd.getIdentity().getDescriptorURL().toString(),
+                    descriptorXML,
+                    serviceDescriptors
+            );
+        }
     }
 
-    protected void describe(String descriptorXML) {
+    /**
+     * @return <code>true</code> if the device has been hydrated and added to the registry.
+     */
+    protected boolean describe(String descriptorXML) {
 
         boolean notifiedStart = false;
         RemoteDevice describedDevice = null;
@@ -169,7 +253,7 @@ public class RetrieveRemoteDescriptors implements Runnable {
                             describedDevice,
                             new DescriptorBindingException("Device service description failed: " + rd)
                     );
-                return;
+                return false;
             }
 
             log.fine("Adding fully hydrated remote device to registry: " + hydratedDevice);
@@ -178,6 +262,7 @@ public class RetrieveRemoteDescriptors implements Runnable {
             // devices' notification), it will simply update the expiration timestamp of the root
             // device.
             getUpnpService().getRegistry().addDevice(hydratedDevice);
+            return true;
 
         } catch (ValidationException ex) {
             log.warning("Could not validate device model: " + rd);
@@ -199,6 +284,7 @@ public class RetrieveRemoteDescriptors implements Runnable {
             if (describedDevice != null && notifiedStart)
                 getUpnpService().getRegistry().notifyDiscoveryFailure(describedDevice, ex);
         }
+        return false;
     }
 
     protected RemoteDevice describeServices(RemoteDevice currentDevice)
@@ -250,6 +336,27 @@ public class RetrieveRemoteDescriptors implements Runnable {
             throws DescriptorBindingException, ValidationException {
 
         URL descriptorURL = service.getDevice().normalizeURI(service.getDescriptorURI());
+
+        String descriptorContent = cachedEntry != null
+                ? cachedEntry.getServiceDescriptor(descriptorURL.toString())
+                : null;
+        if (descriptorContent == null) {
+            descriptorContent = retrieveServiceDescriptor(service, descriptorURL);
+            if (descriptorContent == null) {
+                return null;
+            }
+        }
+        serviceDescriptors.put(descriptorURL.toString(), descriptorContent);
+
+        log.fine("Hydrating service model from descriptor: " + descriptorURL);
+        ServiceDescriptorBinder serviceDescriptorBinder =
+                getUpnpService().getConfiguration().getServiceDescriptorBinderUDA10();
+
+        return serviceDescriptorBinder.describe(service, descriptorContent);
+    }
+
+    protected String retrieveServiceDescriptor(RemoteService service, URL descriptorURL) {
+
         StreamRequestMessage serviceDescRetrievalMsg = new StreamRequestMessage(UpnpRequest.Method.GET, descriptorURL);
 
         log.fine("Sending service descriptor retrieval message: " + serviceDescRetrievalMsg);
@@ -279,11 +386,8 @@ public class RetrieveRemoteDescriptors implements Runnable {
             return null;
         }
 
-        log.fine("Received service descriptor, hydrating service model: " + serviceDescMsg);
-        ServiceDescriptorBinder serviceDescriptorBinder =
-                getUpnpService().getConfiguration().getServiceDescriptorBinderUDA10();
-
-        return serviceDescriptorBinder.describe(service, serviceDescMsg.getBodyString());
+        log.fine("Received service descriptor: " + serviceDescMsg);
+        return descriptorContent;
     }
 
     protected List<RemoteService> filterExclusiveServices(RemoteService[] services) {
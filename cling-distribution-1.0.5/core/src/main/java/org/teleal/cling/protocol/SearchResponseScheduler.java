@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.protocol;
+
+import org.teleal.cling.model.message.discovery.IncomingSearchRequest;
+import org.teleal.cling.model.message.header.UpnpHeader;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delays the responses to received search requests on a shared timer, instead of sleeping on
+ * a protocol thread for each request.
+ * <p>
+ * The delayed responses are sent by a small pool of threads. A search request is merged with a
+ * pending one if it has been received from the same source address and port, on the same local
+ * address, and for the same search target; the requester then gets only one set of responses. Each
+ * source address can only have a limited number of pending responses, further search requests of
+ * that source are dropped until responses have been sent. The total number of pending responses
+ * is also limited.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class SearchResponseScheduler {
+
+    final private static Logger log = Logger.getLogger(SearchResponseScheduler.class.getName());
+
+    final protected ScheduledThreadPoolExecutor executor;
+    final protected int maxPending;
+    final protected int maxPendingPerSource;
+
+    final protected Set<Key> pending = new HashSet();
+    final protected Map<InetAddress, Integer> pendingPerSource = new HashMap();
+
+    protected long scheduledCount;
+    protected long mergedCount;
+    protected long rejectedCount;
+
+    public SearchResponseScheduler() {
+        this(2, 1024, 16);
+    }
+
+    public SearchResponseScheduler(int threads, int maxPending, int maxPendingPerSource) {
+        this.maxPending = maxPending;
+        this.maxPendingPerSource = maxPendingPerSource;
+        this.executor = new ScheduledThreadPoolExecutor(threads, new SearchResponseThreadFactory());
+    }
+
+    /**
+     * Schedules the responses to a search request.
+     *
+     * @param request The received search request.
+     * @param delayMillis The milliseconds to wait before sending responses.
+     * @param responses Sends the responses when the delay has passed.
+     * @return <code>true</code> if the responses have been scheduled, <code>false</code> if the request
+     *         has been merged with a pending one or exceeds the limits.
+     */
+    public boolean schedule(IncomingSearchRequest request, long delayMillis, final Runnable responses) {
+        UpnpHeader searchTarget = request.getSearchTarget();
+        final Key key = new Key(
+                request.getSourceAddress(),
+                request.getSourcePort(),
+                request.getLocalAddress(),
+                searchTarget != null ? searchTarget.getString() : null
+        );
+
+        synchronized (this) {
+            if (pending.contains(key)) {
+                log.fine("Merging search request with pending responses: " + request);
+                mergedCount++;
+                return false;
+            }
+            Integer sourcePending = pendingPerSource.get(key.source);
+            if (sourcePending == null) sourcePending = 0;
+            if (sourcePending >= maxPendingPerSource || pending.size() >= maxPending) {
+                log.fine("Too many pending search responses, dropping search request: " + request);
+                rejectedCount++;
+                return false;
+            }
+            pending.add(key);
+            pendingPerSource.put(key.source, sourcePending + 1);
+            scheduledCount++;
+        }
+
+        try {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        responses.run();
+                    } catch (Throwable t) {
+                        // Nothing reads the future, log here or the failure is lost
+                        log.log(Level.WARNING, "Sending search responses failed: " + t, t);
+                    } finally {
+                        release(key);
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            log.fine("Search response scheduler has been stopped, dropping search request: " + request);
+            synchronized (this) {
+                rejectedCount++;
+            }
+            release(key);
+            return false;
+        }
+        return true;
+    }
+
+    synchronized public int getPendingCount() {
+        return pending.size();
+    }
+
+    synchronized public long getScheduledCount() {
+        return scheduledCount;
+    }
+
+    synchronized public long getMergedCount() {
+        return mergedCount;
+    }
+
+    synchronized public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Stops the threads, pending responses are not sent.
+     */
+    public void stop() {
+        executor.shutdownNow();
+        synchronized (this) {
+            pending.clear();
+            pendingPerSource.clear();
+        }
+    }
+
+    synchronized protected void release(Key key) {
+        if (!pending.remove(key)) return;
+        Integer sourcePending = pendingPerSource.get(key.source);
+        if (sourcePending == null || sourcePending <= 1) {
+            pendingPerSource.remove(key.source);
+        } else {
+            pendingPerSource.put(key.source, sourcePending - 1);
+        }
+    }
+
+    protected static class Key {
+
+        final InetAddress source;
+        final int sourcePort;
+        final InetAddress localAddress;
+        final String searchTarget;
+
+        Key(InetAddress source, int sourcePort, InetAddress localAddress, String searchTarget) {
+            this.source = source;
+            this.sourcePort = sourcePort;
+            this.localAddress = localAddress;
+            this.searchTarget = searchTarget;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return sourcePort == key.sourcePort
+                    && (source != null ? source.equals(key.source) : key.source == null)
+                    && (localAddress != null ? localAddress.equals(key.localAddress) : key.localAddress == null)
+                    && (searchTarget != null ? searchTarget.equals(key.searchTarget) : key.searchTarget == null);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source != null ? source.hashCode() : 0;
+            result = 31 * result + sourcePort;
+            result = 31 * result + (localAddress != null ? localAddress.hashCode() : 0);
+            result = 31 * result + (searchTarget != null ? searchTarget.hashCode() : 0);
+            return result;
+        }
+    }
+
+    protected static class SearchResponseThreadFactory implements ThreadFactory {
+
+        final protected AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "cling-search-response-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+}
@@ -42,6 +42,7 @@ import org.teleal.cling.model.types.DeviceType;
 import org.teleal.cling.model.types.ServiceType;
 import org.teleal.cling.model.types.UDN;
 import org.teleal.cling.protocol.ReceivingAsync;
+import org.teleal.cling.protocol.SearchResponseScheduler;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -122,6 +123,19 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
         // Only wait if there is something to wait for
         if (getUpnpService().getRegistry().getLocalDevices().size() > 0) {
             int sleepTime = randomGenerator.nextInt(mx * 1000);
+
+            SearchResponseScheduler scheduler = getUpnpService().getConfiguration().getSearchResponseScheduler();
+            if (scheduler != null) {
+                log.fine("Scheduling search responses in " + sleepTime + " milliseconds");
+                scheduler.schedule(getInputMessage(), sleepTime, new Runnable() {
+                    public void run() {
+                        execute();
+                    }
+                });
+                // Executed by the scheduler, or merged with pending responses, or dropped
+                return false;
+            }
+
             log.fine("Sleeping " + sleepTime + " milliseconds to avoid flooding with search responses");
             Thread.sleep(sleepTime);
         }
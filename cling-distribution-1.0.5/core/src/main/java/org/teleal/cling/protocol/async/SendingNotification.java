@@ -28,8 +28,10 @@ import org.teleal.cling.model.message.discovery.OutgoingNotificationRequestUDN;
 import org.teleal.cling.model.meta.LocalDevice;
 import org.teleal.cling.model.types.NotificationSubtype;
 import org.teleal.cling.model.types.ServiceType;
+import org.teleal.cling.protocol.AnnouncementCache;
 import org.teleal.cling.protocol.SendingAsync;
 
+import java.net.DatagramPacket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
@@ -40,6 +42,11 @@ import java.util.logging.Logger;
  * Sends all required (dozens) of messages three times, waits between 0 and 150
  * milliseconds between each bulk sending procedure.
  * </p>
+ * <p>
+ * The messages for a descriptor location are written into datagrams once and kept in the
+ * {@link org.teleal.cling.protocol.AnnouncementCache} of the configuration, if enabled. Repeated
+ * and later notifications for the same device and location send these datagrams again.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -78,6 +85,11 @@ public abstract class SendingNotification extends SendingAsync {
             );
         }
 
+        // Written datagrams for stream servers that are gone are no longer needed
+        if (getAnnouncementCache() != null) {
+            getAnnouncementCache().retainLocations(getDevice(), descriptorLocations);
+        }
+
         for (int i = 0; i < getBulkRepeat(); i++) {
             try {
 
@@ -104,32 +116,50 @@ public abstract class SendingNotification extends SendingAsync {
     }
 
     public void sendMessages(Location descriptorLocation) {
-        log.finer("Sending root device messages: " + getDevice());
-        List<OutgoingNotificationRequest> rootDeviceMsgs =
-                createDeviceMessages(getDevice(), descriptorLocation);
-        for (OutgoingNotificationRequest upnpMessage : rootDeviceMsgs) {
-            getUpnpService().getRouter().send(upnpMessage);
+        AnnouncementCache cache = getAnnouncementCache();
+        if (cache == null) {
+            for (OutgoingNotificationRequest upnpMessage : createMessages(descriptorLocation)) {
+                getUpnpService().getRouter().send(upnpMessage);
+            }
+            return;
         }
 
-        if (getDevice().hasEmbeddedDevices()) {
-            for (LocalDevice embeddedDevice : getDevice().findEmbeddedDevices()) {
-                log.finer("Sending embedded device messages: " + embeddedDevice);
-                List<OutgoingNotificationRequest> embeddedDeviceMsgs =
-                        createDeviceMessages(embeddedDevice, descriptorLocation);
-                for (OutgoingNotificationRequest upnpMessage : embeddedDeviceMsgs) {
-                    getUpnpService().getRouter().send(upnpMessage);
-                }
+        List<DatagramPacket> datagrams = cache.get(getDevice(), descriptorLocation, getNotificationSubtype());
+        if (datagrams == null) {
+            log.finer("Writing notification datagrams for location: " + descriptorLocation);
+            datagrams = new ArrayList();
+            for (OutgoingNotificationRequest upnpMessage : createMessages(descriptorLocation)) {
+                datagrams.add(getUpnpService().getConfiguration().getDatagramProcessor().write(upnpMessage));
             }
+            cache.put(getDevice(), descriptorLocation, getNotificationSubtype(), datagrams);
+        }
+        for (DatagramPacket datagram : datagrams) {
+            getUpnpService().getRouter().send(datagram);
         }
+    }
 
-        List<OutgoingNotificationRequest> serviceTypeMsgs =
-                createServiceTypeMessages(getDevice(), descriptorLocation);
-        if (serviceTypeMsgs.size() > 0) {
-            log.finer("Sending service type messages");
-            for (OutgoingNotificationRequest upnpMessage : serviceTypeMsgs) {
-                getUpnpService().getRouter().send(upnpMessage);
+    protected List<OutgoingNotificationRequest> createMessages(Location descriptorLocation) {
+        List<OutgoingNotificationRequest> msgs = new ArrayList();
+
+        log.finer("Creating root device messages: " + getDevice());
+        msgs.addAll(createDeviceMessages(getDevice(), descriptorLocation));
+
+        if (getDevice().hasEmbeddedDevices()) {
+            for (LocalDevice embeddedDevice : getDevice().findEmbeddedDevices()) {
+                log.finer("Creating embedded device messages: " + embeddedDevice);
+                msgs.addAll(createDeviceMessages(embeddedDevice, descriptorLocation));
             }
         }
+
+        msgs.addAll(createServiceTypeMessages(getDevice(), descriptorLocation));
+        return msgs;
+    }
+
+    /**
+     * @return The cache of written datagrams from the configuration, or <code>null</code> if disabled.
+     */
+    protected AnnouncementCache getAnnouncementCache() {
+        return getUpnpService().getConfiguration().getAnnouncementCache();
     }
 
     protected List<OutgoingNotificationRequest> createDeviceMessages(LocalDevice device,
@@ -49,6 +49,10 @@ public class SendingNotificationByebye extends SendingNotification {
     protected void execute() {
         log.fine("Sending byebye messages ("+getBulkRepeat()+" times) for: " + getDevice());
         super.execute();
+        // The device is gone, or is going to be registered again
+        if (getAnnouncementCache() != null) {
+            getAnnouncementCache().remove(getDevice());
+        }
     }
 
     protected NotificationSubtype getNotificationSubtype() {
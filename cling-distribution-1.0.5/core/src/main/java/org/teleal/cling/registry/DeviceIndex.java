@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.registry;
+
+import org.teleal.cling.model.meta.Device;
+import org.teleal.cling.model.meta.Service;
+import org.teleal.cling.model.types.DeviceType;
+import org.teleal.cling.model.types.ServiceType;
+import org.teleal.cling.model.types.UDN;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Internal class, required by {@link RegistryItems}.
+ * <p>
+ * An immutable snapshot of registered root devices and their embedded devices, safe to read
+ * without holding the registry lock. Adding or removing a device graph returns a new snapshot.
+ * Devices are indexed by UDN and by the "namespace:type" of their own type and of their services,
+ * any version, so lookups cost in proportion to the result and not the number of devices.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+class DeviceIndex<D extends Device> {
+
+    final private Map<UDN, D> rootDevices;
+    final private Map<UDN, D> devices;
+    final private Map<String, Set<D>> devicesByDeviceType;
+    final private Map<String, Set<D>> devicesByServiceType;
+
+    // Type buckets already copied for this snapshot while it is built, null once it is published
+    private Set<Set<D>> copiedBuckets;
+
+    DeviceIndex() {
+        this(
+                new LinkedHashMap<UDN, D>(),
+                new HashMap<UDN, D>(),
+                new HashMap<String, Set<D>>(),
+                new HashMap<String, Set<D>>()
+        );
+    }
+
+    private DeviceIndex(Map<UDN, D> rootDevices, Map<UDN, D> devices,
+                        Map<String, Set<D>> devicesByDeviceType, Map<String, Set<D>> devicesByServiceType) {
+        this.rootDevices = rootDevices;
+        this.devices = devices;
+        this.devicesByDeviceType = devicesByDeviceType;
+        this.devicesByServiceType = devicesByServiceType;
+    }
+
+    /**
+     * @return A new snapshot with the given root device and all its embedded devices.
+     */
+    DeviceIndex<D> add(D rootDevice) {
+        DeviceIndex<D> index = new DeviceIndex<D>(
+                new LinkedHashMap<UDN, D>(rootDevices),
+                new HashMap<UDN, D>(devices),
+                new HashMap<String, Set<D>>(devicesByDeviceType),
+                new HashMap<String, Set<D>>(devicesByServiceType)
+        );
+        for (D embeddedDevice : (D[]) rootDevice.findEmbeddedDevices()) {
+            index.index(embeddedDevice, true);
+        }
+        // The root wins if an embedded device (wrongly) has the same UDN
+        index.index(rootDevice, true);
+        index.rootDevices.put(rootDevice.getIdentity().getUdn(), rootDevice);
+        index.copiedBuckets = null;
+        return index;
+    }
+
+    /**
+     * @return A new snapshot without the root device registered under the given UDN and its embedded devices.
+     */
+    DeviceIndex<D> remove(UDN rootUdn) {
+        return remove(Collections.singleton(rootUdn));
+    }
+
+    /**
+     * @return A new snapshot without the root devices registered under the given UDNs and their embedded
+     *         devices, copied once for all of them.
+     */
+    DeviceIndex<D> remove(Collection<UDN> rootUdns) {
+        DeviceIndex<D> index = null;
+        for (UDN rootUdn : rootUdns) {
+            D rootDevice = rootDevices.get(rootUdn);
+            if (rootDevice == null) continue;
+            if (index == null) {
+                index = new DeviceIndex<D>(
+                        new LinkedHashMap<UDN, D>(rootDevices),
+                        new HashMap<UDN, D>(devices),
+                        new HashMap<String, Set<D>>(devicesByDeviceType),
+                        new HashMap<String, Set<D>>(devicesByServiceType)
+                );
+            }
+            for (D embeddedDevice : (D[]) rootDevice.findEmbeddedDevices()) {
+                index.index(embeddedDevice, false);
+            }
+            index.index(rootDevice, false);
+            index.rootDevices.remove(rootUdn);
+        }
+        if (index == null) return this;
+        index.copiedBuckets = null;
+        return index;
+    }
+
+    D get(UDN udn, boolean rootOnly) {
+        return rootOnly ? rootDevices.get(udn) : devices.get(udn);
+    }
+
+    Collection<D> get() {
+        return Collections.unmodifiableCollection(rootDevices.values());
+    }
+
+    Collection<D> get(DeviceType deviceType) {
+        Collection<D> result = new HashSet();
+        Set<D> candidates = devicesByDeviceType.get(typeKey(deviceType.getNamespace(), deviceType.getType()));
+        if (candidates != null) {
+            for (D candidate : candidates) {
+                if (candidate.getType().implementsVersion(deviceType)) {
+                    result.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+
+    Collection<D> get(ServiceType serviceType) {
+        Collection<D> result = new HashSet();
+        Set<D> candidates = devicesByServiceType.get(typeKey(serviceType.getNamespace(), serviceType.getType()));
+        if (candidates != null) {
+            for (D candidate : candidates) {
+                for (Service service : candidate.getServices()) {
+                    if (service.getServiceType().implementsVersion(serviceType)) {
+                        result.add(candidate);
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return rootDevices.size();
+    }
+
+    // Only called on a fresh copy, before it is published
+    private void index(D device, boolean add) {
+        UDN udn = device.getIdentity().getUdn();
+        if (add) {
+            devices.put(udn, device);
+        } else if (devices.get(udn) == device) {
+            devices.remove(udn);
+        }
+        // Type might be null if we just discovered the device and it hasn't yet been hydrated
+        if (device.getType() != null) {
+            update(devicesByDeviceType, typeKey(device.getType().getNamespace(), device.getType().getType()), device, add);
+        }
+        if (device.hasServices()) {
+            for (Service service : device.getServices()) {
+                ServiceType serviceType = service.getServiceType();
+                update(devicesByServiceType, typeKey(serviceType.getNamespace(), serviceType.getType()), device, add);
+            }
+        }
+    }
+
+    private void update(Map<String, Set<D>> index, String key, D device, boolean add) {
+        // Sets are shared between snapshots, copy before modifying, but only once per snapshot
+        if (copiedBuckets == null) {
+            copiedBuckets = Collections.newSetFromMap(new IdentityHashMap<Set<D>, Boolean>());
+        }
+        Set<D> typed = index.get(key);
+        if (typed == null || !copiedBuckets.contains(typed)) {
+            typed = typed != null ? new HashSet<D>(typed) : new HashSet<D>();
+            copiedBuckets.add(typed);
+        }
+        if (add) {
+            typed.add(device);
+        } else {
+            typed.remove(device);
+        }
+        if (typed.isEmpty()) {
+            index.remove(key);
+        } else {
+            index.put(key, typed);
+        }
+    }
+
+    private String typeKey(String namespace, String type) {
+        return namespace + ":" + type;
+    }
+
+}
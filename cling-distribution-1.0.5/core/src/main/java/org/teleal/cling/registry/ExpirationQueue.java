@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.registry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Internal class, required by {@link RegistryItems} and {@link RegistryImpl}.
+ * <p>
+ * Orders keys of registry items by their next due time, so the registry maintenance only
+ * visits items which are actually due. Scheduling a key again replaces its deadline; stale
+ * queue entries are skipped when they come up, which keeps rescheduling and cancellation
+ * at <code>O(log n)</code>.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+class ExpirationQueue<K> {
+
+    final private PriorityQueue<Entry<K>> queue = new PriorityQueue<Entry<K>>();
+    final private Map<K, Long> deadlines = new HashMap<K, Long>();
+
+    /**
+     * @param deadlineMillis The due time, <code>0</code> if the key never expires.
+     */
+    void schedule(K key, long deadlineMillis) {
+        if (deadlineMillis == 0) {
+            cancel(key);
+            return;
+        }
+        Long previous = deadlines.put(key, deadlineMillis);
+        if (previous == null || previous != deadlineMillis) {
+            queue.add(new Entry<K>(key, deadlineMillis));
+            if (queue.size() > 2 * deadlines.size() + 64) {
+                // Frequently refreshed items leave many stale entries behind
+                queue.clear();
+                for (Map.Entry<K, Long> deadline : deadlines.entrySet()) {
+                    queue.add(new Entry<K>(deadline.getKey(), deadline.getValue()));
+                }
+            }
+        }
+    }
+
+    void cancel(K key) {
+        deadlines.remove(key);
+        if (deadlines.isEmpty()) {
+            queue.clear();
+        }
+    }
+
+    void clear() {
+        deadlines.clear();
+        queue.clear();
+    }
+
+    /**
+     * @return The next key due at the given time, removed from the queue, or <code>null</code> if none is due.
+     */
+    K poll(long nowMillis) {
+        Entry<K> entry;
+        while ((entry = queue.peek()) != null && entry.deadlineMillis <= nowMillis) {
+            queue.poll();
+            Long deadline = deadlines.get(entry.key);
+            if (deadline != null && deadline == entry.deadlineMillis) {
+                deadlines.remove(entry.key);
+                return entry.key;
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return deadlines.size();
+    }
+
+    static class Entry<K> implements Comparable<Entry<K>> {
+
+        final K key;
+        final long deadlineMillis;
+
+        Entry(K key, long deadlineMillis) {
+            this.key = key;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public int compareTo(Entry<K> that) {
+            return deadlineMillis < that.deadlineMillis ? -1 : (deadlineMillis == that.deadlineMillis ? 0 : 1);
+        }
+    }
+
+}
@@ -24,12 +24,7 @@ import org.teleal.cling.model.meta.LocalDevice;
 import org.teleal.cling.model.types.UDN;
 import org.teleal.cling.protocol.SendingAsync;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Random;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -42,7 +37,8 @@ class LocalItems extends RegistryItems<LocalDevice, LocalGENASubscription> {
     private static Logger log = Logger.getLogger(Registry.class.getName());
 
     LocalItems(RegistryImpl registry) {
-        super(registry);
+        // Local devices are advertised again at half their maximum age
+        super(registry, true, false);
     }
 
     void add(LocalDevice localDevice) throws RegistrationException {
@@ -73,23 +69,13 @@ class LocalItems extends RegistryItems<LocalDevice, LocalGENASubscription> {
                 localDevice.getIdentity().getMaxAgeSeconds()
         );
 
-        deviceItems.add(localItem);
+        addDeviceItem(localItem);
         log.fine("Registered local device: " + localItem);
 
         advertiseAlive(localDevice);
 
-        for (RegistryListener listener : registry.getListeners()) {
-            listener.localDeviceAdded(registry, localDevice);
-        }
-
-    }
+        registry.getListenerDispatcher().localDeviceAdded(localDevice);
 
-    Collection<LocalDevice> get() {
-        Set<LocalDevice> c = new HashSet();
-        for (RegistryItem<UDN, LocalDevice> item : deviceItems) {
-            c.add(item.getItem());
-        }
-        return Collections.unmodifiableCollection(c);
     }
 
     boolean remove(final LocalDevice localDevice) throws RegistrationException {
@@ -103,7 +89,7 @@ class LocalItems extends RegistryItems<LocalDevice, LocalGENASubscription> {
 
             log.fine("Removing local device from registry: " + localDevice);
 
-            deviceItems.remove(new RegistryItem(localDevice.getIdentity().getUdn()));
+            removeDeviceItem(localDevice.getIdentity().getUdn());
 
             for (Resource deviceResource : getResources(localDevice)) {
                 if (registry.removeResource(deviceResource)) {
@@ -111,43 +97,30 @@ class LocalItems extends RegistryItems<LocalDevice, LocalGENASubscription> {
                 }
             }
 
-            // Active subscriptions
-            Iterator<RegistryItem<String, LocalGENASubscription>> it = subscriptionItems.iterator();
-            while (it.hasNext()) {
-                final RegistryItem<String, LocalGENASubscription> incomingSubscription = it.next();
-
-                UDN subscriptionForUDN =
-                        incomingSubscription.getItem().getService().getDevice().getIdentity().getUdn();
-
-                if (subscriptionForUDN.equals(registeredDevice.getIdentity().getUdn())) {
-                    log.fine("Removing incoming subscription: " + incomingSubscription.getKey());
-                    it.remove();
-                    if (!shuttingDown) {
-                        registry.getConfiguration().getRegistryListenerExecutor().execute(
-                                new Runnable() {
-                                    public void run() {
-                                        incomingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED);
-                                    }
-                                }
-                        );
-                    }
-                }
-            }
-
-            advertiseByebye(localDevice, !shuttingDown);
-
-            if (!shuttingDown) {
-                for (final RegistryListener listener : registry.getListeners()) {
+            // Active subscriptions, including those for services of embedded devices
+            for (final RegistryItem<String, LocalGENASubscription> incomingSubscription : removeSubscriptionItems(registeredDevice)) {
+                log.fine("Removing incoming subscription: " + incomingSubscription.getKey());
+                if (!shuttingDown) {
                     registry.getConfiguration().getRegistryListenerExecutor().execute(
                             new Runnable() {
                                 public void run() {
-                                    listener.localDeviceRemoved(registry, localDevice);
+                                    incomingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED);
                                 }
                             }
                     );
                 }
             }
 
+            if (registry.getConfiguration().getAnnouncementCache() != null) {
+                registry.getConfiguration().getAnnouncementCache().remove(localDevice);
+            }
+
+            advertiseByebye(localDevice, !shuttingDown);
+
+            if (!shuttingDown) {
+                registry.getListenerDispatcher().localDeviceRemoved(localDevice);
+            }
+
             return true;
         }
 
@@ -160,49 +133,45 @@ class LocalItems extends RegistryItems<LocalDevice, LocalGENASubscription> {
 
     void removeAll(boolean shuttingDown) {
         LocalDevice[] allDevices = get().toArray(new LocalDevice[get().size()]);
-        for (LocalDevice device : allDevices) {
-            remove(device, shuttingDown);
+        beginBatch();
+        try {
+            for (LocalDevice device : allDevices) {
+                remove(device, shuttingDown);
+            }
+        } finally {
+            endBatch();
         }
     }
 
     /* ############################################################################################################ */
 
     void maintain() {
-
-    	if(deviceItems.isEmpty()) return ;
-
-        // Refresh expired local devices
-        Set<RegistryItem<UDN, LocalDevice>> expiredLocalItems = new HashSet();
-        for (RegistryItem<UDN, LocalDevice> localItem : deviceItems) {
-            if (localItem.getExpirationDetails().hasExpired(true)) {
-                log.finer("Local item has expired: " + localItem);
-                expiredLocalItems.add(localItem);
-            }
-        }
-        for (RegistryItem<UDN, LocalDevice> expiredLocalItem : expiredLocalItems) {
-            log.fine("Refreshing local device advertisement: " + expiredLocalItem.getItem());
-            advertiseAlive(expiredLocalItem.getItem());
-            expiredLocalItem.getExpirationDetails().stampLastRefresh();
+        long now = System.currentTimeMillis();
+
+        // Refresh local devices at half their maximum age
+        RegistryItem<UDN, LocalDevice> localItem;
+        while ((localItem = dueDeviceItem(now)) != null) {
+            log.fine("Refreshing local device advertisement: " + localItem.getItem());
+            advertiseAlive(localItem.getItem());
+            localItem.getExpirationDetails().stampLastRefresh();
+            scheduleDeviceItem(localItem);
+            renewals++;
         }
 
         // Expire incoming subscriptions
-        Set<RegistryItem<String, LocalGENASubscription>> expiredIncomingSubscriptions = new HashSet();
-        for (RegistryItem<String, LocalGENASubscription> item : subscriptionItems) {
-            if (item.getExpirationDetails().hasExpired(false)) {
-                expiredIncomingSubscriptions.add(item);
-            }
-        }
-        for (RegistryItem<String, LocalGENASubscription> subscription : expiredIncomingSubscriptions) {
+        RegistryItem<String, LocalGENASubscription> subscription;
+        while ((subscription = dueSubscriptionItem(now)) != null) {
             log.fine("Removing expired: " + subscription);
             removeSubscription(subscription.getItem());
             subscription.getItem().end(CancelReason.EXPIRED);
+            expirations++;
         }
 
     }
 
     void shutdown() {
         log.fine("Clearing all registered subscriptions to local devices during shutdown");
-        subscriptionItems.clear();
+        removeAllSubscriptionItems();
 
         log.fine("Removing all local devices from registry during shutdown");
         removeAll(true);
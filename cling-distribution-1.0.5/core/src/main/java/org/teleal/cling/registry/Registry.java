@@ -188,6 +188,9 @@ public interface Registry {
 
     /**
      * Call this method to add your local device metadata.
+     * <p>
+     * Registry listeners are notified in a separate thread, this method doesn't wait for them.
+     * </p>
      *
      * @param localDevice The device to add and maintain.
      * @throws RegistrationException If a conflict with an already registered device was detected.
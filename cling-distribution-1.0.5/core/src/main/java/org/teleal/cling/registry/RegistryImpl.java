@@ -38,16 +38,24 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Default implementation of {@link Registry}.
+ * <p>
+ * All changes are serialized on this instance's monitor. Lookups of devices, resources, and
+ * subscriptions don't lock, they read immutable snapshots which are republished by every change,
+ * so they never block each other or the background maintenance.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -57,8 +65,15 @@ public class RegistryImpl implements Registry {
 
     protected final UpnpService upnpService;
     protected RegistryMaintainer registryMaintainer;
+    protected RegistryListenerDispatcher listenerDispatcher;
     protected ReentrantLock remoteSubscriptionsLock = new ReentrantLock(true); 
 
+    // Items expired and renewed by the last maintenance run, and since startup
+    protected volatile int lastExpirations;
+    protected volatile int lastRenewals;
+    protected volatile long totalExpirations;
+    protected volatile long totalRenewals;
+
     /**
      * Starts background maintenance immediately.
      */
@@ -66,6 +81,7 @@ public class RegistryImpl implements Registry {
         log.fine("Creating Registry: " + getClass().getName());
 
         this.upnpService = upnpService;
+        this.listenerDispatcher = createListenerDispatcher();
 
         log.fine("Starting registry background maintenance...");
         registryMaintainer = createRegistryMaintainer();
@@ -93,10 +109,34 @@ public class RegistryImpl implements Registry {
         );
     }
 
+    /**
+     * Updates of the same remote device are delivered at most once per second to each listener.
+     */
+    protected RegistryListenerDispatcher createListenerDispatcher() {
+        return new RegistryListenerDispatcher(
+                this,
+                getConfiguration().getRegistryListenerExecutor(),
+                1000,
+                5000,
+                1000
+        );
+    }
+
+    public RegistryListenerDispatcher getListenerDispatcher() {
+        return listenerDispatcher;
+    }
+
     // #################################################################################################
 
-    protected final Set<RegistryListener> registryListeners = new HashSet();
-    protected final Set<RegistryItem<URI, Resource>> resourceItems = new HashSet();
+    protected final Set<RegistryListener> registryListeners = new CopyOnWriteArraySet();
+    protected final Map<URI, RegistryItem<URI, Resource>> resourceItems = new HashMap();
+    // Only resources which override Resource#maintain() are called on every maintenance run
+    protected final Map<URI, RegistryItem<URI, Resource>> maintainedResourceItems = new LinkedHashMap();
+    // Whether a resource class overrides Resource#maintain(), checked once per class
+    protected final Map<Class, Boolean> maintainedResourceClasses = new HashMap();
+    protected final ExpirationQueue<URI> resourceExpirations = new ExpirationQueue<URI>();
+    // Rebuilt whenever resourceItems change, read without the registry lock
+    protected volatile ResourceRouter resourceRouter = new ResourceRouter();
     protected final List<Runnable> pendingExecutions = new ArrayList();
 
     protected final RemoteItems remoteItems = new RemoteItems(this);
@@ -110,9 +150,10 @@ public class RegistryImpl implements Registry {
 
     synchronized public void removeListener(RegistryListener listener) {
         registryListeners.remove(listener);
+        getListenerDispatcher().removeListener(listener);
     }
 
-    synchronized public Collection<RegistryListener> getListeners() {
+    public Collection<RegistryListener> getListeners() {
         return Collections.unmodifiableCollection(registryListeners);
     }
 
@@ -122,28 +163,12 @@ public class RegistryImpl implements Registry {
             log.finer("Not notifying listeners, already registered: " + device);
             return false;
         }
-        for (final RegistryListener listener : getListeners()) {
-            getConfiguration().getRegistryListenerExecutor().execute(
-                    new Runnable() {
-                        public void run() {
-                            listener.remoteDeviceDiscoveryStarted(RegistryImpl.this, device);
-                        }
-                    }
-            );
-        }
+        getListenerDispatcher().remoteDeviceDiscoveryStarted(device);
         return true;
     }
 
     synchronized public void notifyDiscoveryFailure(final RemoteDevice device, final Exception ex) {
-        for (final RegistryListener listener : getListeners()) {
-            getConfiguration().getRegistryListenerExecutor().execute(
-                    new Runnable() {
-                        public void run() {
-                            listener.remoteDeviceDiscoveryFailed(RegistryImpl.this, device, ex);
-                        }
-                    }
-            );
-        }
+        getListenerDispatcher().remoteDeviceDiscoveryFailed(device, ex);
     }
 
     // #################################################################################################
@@ -185,37 +210,39 @@ public class RegistryImpl implements Registry {
         return false;
     }
 
-    synchronized public Device getDevice(UDN udn, boolean rootOnly) {
+    public Device getDevice(UDN udn, boolean rootOnly) {
         Device device;
         if ((device = localItems.get(udn, rootOnly)) != null) return device;
         if ((device = remoteItems.get(udn, rootOnly)) != null) return device;
         return null;
     }
 
-    synchronized public LocalDevice getLocalDevice(UDN udn, boolean rootOnly) {
+    public LocalDevice getLocalDevice(UDN udn, boolean rootOnly) {
         return localItems.get(udn, rootOnly);
     }
 
-    synchronized public RemoteDevice getRemoteDevice(UDN udn, boolean rootOnly) {
+    public RemoteDevice getRemoteDevice(UDN udn, boolean rootOnly) {
         return remoteItems.get(udn, rootOnly);
     }
 
-    synchronized public Collection<LocalDevice> getLocalDevices() {
-        return Collections.unmodifiableCollection(localItems.get());
+    public Collection<LocalDevice> getLocalDevices() {
+        return localItems.get();
     }
 
-    synchronized public Collection<RemoteDevice> getRemoteDevices() {
-        return Collections.unmodifiableCollection(remoteItems.get());
+    public Collection<RemoteDevice> getRemoteDevices() {
+        return remoteItems.get();
     }
 
-    synchronized public Collection<Device> getDevices() {
-        Set all = new HashSet();
-        all.addAll(localItems.get());
-        all.addAll(remoteItems.get());
+    public Collection<Device> getDevices() {
+        Collection<LocalDevice> localDevices = localItems.get();
+        Collection<RemoteDevice> remoteDevices = remoteItems.get();
+        Collection<Device> all = new ArrayList(localDevices.size() + remoteDevices.size());
+        all.addAll(localDevices);
+        all.addAll(remoteDevices);
         return Collections.unmodifiableCollection(all);
     }
 
-    synchronized public Collection<Device> getDevices(DeviceType deviceType) {
+    public Collection<Device> getDevices(DeviceType deviceType) {
         Collection<Device> devices = new HashSet();
 
         devices.addAll(localItems.get(deviceType));
@@ -224,7 +251,7 @@ public class RegistryImpl implements Registry {
         return Collections.unmodifiableCollection(devices);
     }
 
-    synchronized public Collection<Device> getDevices(ServiceType serviceType) {
+    public Collection<Device> getDevices(ServiceType serviceType) {
         Collection<Device> devices = new HashSet();
 
         devices.addAll(localItems.get(serviceType));
@@ -233,7 +260,7 @@ public class RegistryImpl implements Registry {
         return Collections.unmodifiableCollection(devices);
     }
 
-    synchronized public Service getService(ServiceReference serviceReference) {
+    public Service getService(ServiceReference serviceReference) {
         Device device;
         if ((device = getDevice(serviceReference.getUdn(), false)) != null) {
             return device.findService(serviceReference.getServiceId());
@@ -243,37 +270,26 @@ public class RegistryImpl implements Registry {
 
     // #################################################################################################
 
-    synchronized public Resource getResource(URI pathQuery) throws IllegalArgumentException {
+    public Resource getResource(URI pathQuery) throws IllegalArgumentException {
         if (pathQuery.isAbsolute()) {
             throw new IllegalArgumentException("Resource URI can not be absolute, only path and query:" + pathQuery);
         }
 
-        // Note: Uses field access on resourceItems for performance reasons
-
-		for (RegistryItem<URI, Resource> resourceItem : resourceItems) {
-        	Resource resource = resourceItem.getItem();
-        	if (resource.matches(pathQuery)) {
-                return resource;
-            }
-        }
+        ResourceRouter router = resourceRouter;
+        Resource resource;
+        if ((resource = router.get(pathQuery)) != null) return resource;
 
         // TODO: UPNP VIOLATION: Fuppes on my ReadyNAS thinks it's a cool idea to add a slash at the end of the callback URI...
         // It also cuts off any query parameters in the callback URL - nice!
         if (pathQuery.getPath().endsWith("/")) {
             URI pathQueryWithoutSlash = URI.create(pathQuery.toString().substring(0, pathQuery.toString().length() - 1));
-
- 			for (RegistryItem<URI, Resource> resourceItem : resourceItems) {
-            	Resource resource = resourceItem.getItem();
-            	if (resource.matches(pathQueryWithoutSlash)) {
-                    return resource;
-                }
-            }
+            return router.get(pathQueryWithoutSlash);
         }
 
         return null;
     }
 
-    synchronized public <T extends Resource> T getResource(Class<T> resourceType, URI pathQuery) throws IllegalArgumentException {
+    public <T extends Resource> T getResource(Class<T> resourceType, URI pathQuery) throws IllegalArgumentException {
         Resource resource = getResource(pathQuery);
         if (resource != null && resourceType.isAssignableFrom(resource.getClass())) {
             return (T) resource;
@@ -281,19 +297,15 @@ public class RegistryImpl implements Registry {
         return null;
     }
 
-    synchronized public Collection<Resource> getResources() {
-        Collection<Resource> s = new HashSet();
-        for (RegistryItem<URI, Resource> resourceItem : resourceItems) {
-            s.add(resourceItem.getItem());
-        }
-        return s;
+    public Collection<Resource> getResources() {
+        return resourceRouter.get();
     }
 
-    synchronized public <T extends Resource> Collection<T> getResources(Class<T> resourceType) {
+    public <T extends Resource> Collection<T> getResources(Class<T> resourceType) {
         Collection<T> s = new HashSet();
-        for (RegistryItem<URI, Resource> resourceItem : resourceItems) {
-            if (resourceType.isAssignableFrom(resourceItem.getItem().getClass()))
-                s.add((T) resourceItem.getItem());
+        for (Resource resource : resourceRouter.get()) {
+            if (resourceType.isAssignableFrom(resource.getClass()))
+                s.add((T) resource);
         }
         return s;
     }
@@ -303,13 +315,46 @@ public class RegistryImpl implements Registry {
     }
 
     synchronized public void addResource(Resource resource, int maxAgeSeconds) {
-        RegistryItem resourceItem = new RegistryItem(resource.getPathQuery(), resource, maxAgeSeconds);
-        resourceItems.remove(resourceItem);
-        resourceItems.add(resourceItem);
+        RegistryItem<URI, Resource> resourceItem =
+                new RegistryItem<URI, Resource>(resource.getPathQuery(), resource, maxAgeSeconds);
+        resourceItems.put(resourceItem.getKey(), resourceItem);
+        if (hasOwnMaintenance(resource)) {
+            maintainedResourceItems.put(resourceItem.getKey(), resourceItem);
+        } else {
+            maintainedResourceItems.remove(resourceItem.getKey());
+        }
+        resourceExpirations.schedule(
+                resourceItem.getKey(), resourceItem.getExpirationDetails().getExpirationTimestampMillis(false)
+        );
+        resourceRouter = resourceRouter.add(resource);
     }
 
     synchronized public boolean removeResource(Resource resource) {
-        return resourceItems.remove(new RegistryItem(resource.getPathQuery()));
+        return removeResourceItem(resource.getPathQuery());
+    }
+
+    protected boolean removeResourceItem(URI pathQuery) {
+        if (resourceItems.remove(pathQuery) != null) {
+            maintainedResourceItems.remove(pathQuery);
+            resourceExpirations.cancel(pathQuery);
+            resourceRouter = resourceRouter.remove(pathQuery);
+            return true;
+        }
+        return false;
+    }
+
+    protected boolean hasOwnMaintenance(Resource resource) {
+        Boolean maintained = maintainedResourceClasses.get(resource.getClass());
+        if (maintained == null) {
+            try {
+                maintained = resource.getClass().getMethod("maintain", List.class, ExpirationDetails.class)
+                        .getDeclaringClass() != Resource.class;
+            } catch (NoSuchMethodException ex) {
+                throw new IllegalStateException(ex);
+            }
+            maintainedResourceClasses.put(resource.getClass(), maintained);
+        }
+        return maintained;
     }
 
     // #################################################################################################
@@ -318,7 +363,7 @@ public class RegistryImpl implements Registry {
         localItems.addSubscription(subscription);
     }
 
-    synchronized public LocalGENASubscription getLocalSubscription(String subscriptionId) {
+    public LocalGENASubscription getLocalSubscription(String subscriptionId) {
         return localItems.getSubscription(subscriptionId);
     }
 
@@ -334,7 +379,7 @@ public class RegistryImpl implements Registry {
         remoteItems.addSubscription(subscription);
     }
 
-    synchronized public RemoteGENASubscription getRemoteSubscription(String subscriptionId) {
+    public RemoteGENASubscription getRemoteSubscription(String subscriptionId) {
         return remoteItems.getSubscription(subscriptionId);
     }
 
@@ -364,7 +409,7 @@ public class RegistryImpl implements Registry {
             listener.beforeShutdown(this);
         }
 
-        RegistryItem<URI, Resource>[] resources = resourceItems.toArray(new RegistryItem[resourceItems.size()]);
+        RegistryItem<URI, Resource>[] resources = resourceItems.values().toArray(new RegistryItem[resourceItems.size()]);
         for (RegistryItem<URI, Resource> resourceItem : resources) {
             resourceItem.getItem().shutdown();
         }
@@ -409,32 +454,72 @@ public class RegistryImpl implements Registry {
             log.finest("Maintaining registry...");
 
         // Remove expired resources
-        Iterator<RegistryItem<URI, Resource>> it = resourceItems.iterator();
-        while (it.hasNext()) {
-            RegistryItem<URI, Resource> item = it.next();
-            if (item.getExpirationDetails().hasExpired()) {
-                if (log.isLoggable(Level.FINER))
-                    log.finer("Removing expired resource: " + item);
-                it.remove();
+        int expiredResources = 0;
+        long now = System.currentTimeMillis();
+        URI pathQuery;
+        while ((pathQuery = resourceExpirations.poll(now)) != null) {
+            RegistryItem<URI, Resource> item = resourceItems.get(pathQuery);
+            if (item == null) continue;
+            if (!item.getExpirationDetails().hasExpired()) {
+                resourceExpirations.schedule(pathQuery, item.getExpirationDetails().getExpirationTimestampMillis(false));
+                continue;
             }
+            if (log.isLoggable(Level.FINER))
+                log.finer("Removing expired resource: " + item);
+            removeResourceItem(pathQuery);
+            expiredResources++;
         }
 
         // Let each resource do its own maintenance
-        for (RegistryItem<URI, Resource> resourceItem : resourceItems) {
+        for (RegistryItem<URI, Resource> resourceItem : maintainedResourceItems.values()) {
             resourceItem.getItem().maintain(
                     pendingExecutions,
                     resourceItem.getExpirationDetails()
             );
         }
 
-        // These add all their operations to the pendingExecutions queue
+        // These add all their operations to the pendingExecutions queue, only due items are visited
+        remoteItems.expirations = remoteItems.renewals = 0;
+        localItems.expirations = localItems.renewals = 0;
         remoteItems.maintain();
         localItems.maintain();
 
+        lastExpirations = expiredResources + remoteItems.expirations + localItems.expirations;
+        lastRenewals = remoteItems.renewals + localItems.renewals;
+        totalExpirations += lastExpirations;
+        totalRenewals += lastRenewals;
+        if ((lastExpirations > 0 || lastRenewals > 0) && log.isLoggable(Level.FINE))
+            log.fine("Registry maintenance expired " + lastExpirations + " and renewed " + lastRenewals + " items");
+
+        // Listener events might be waiting if the listener executor was saturated
+        getListenerDispatcher().scheduleWaiting();
+
         // We now run the queue asynchronously so the maintenance thread can continue its loop undisturbed
         runPendingExecutions(true);
     }
 
+    /**
+     * @return The number of devices, subscriptions, and resources which expired in the last maintenance run.
+     */
+    public int getLastExpirations() {
+        return lastExpirations;
+    }
+
+    /**
+     * @return The number of local device advertisements and outgoing subscriptions renewed in the last maintenance run.
+     */
+    public int getLastRenewals() {
+        return lastRenewals;
+    }
+
+    public long getTotalExpirations() {
+        return totalExpirations;
+    }
+
+    public long getTotalRenewals() {
+        return totalRenewals;
+    }
+
     synchronized void executeAsyncProtocol(Runnable runnable) {
         pendingExecutions.add(runnable);
     }
@@ -471,7 +556,7 @@ public class RegistryImpl implements Registry {
 
             log.fine("====================================  RESOURCES  ================================================");
 
-            for (RegistryItem<URI, Resource> resourceItem : resourceItems) {
+            for (RegistryItem<URI, Resource> resourceItem : resourceItems.values()) {
                 log.fine(resourceItem.toString());
             }
 
@@ -18,17 +18,23 @@
 package org.teleal.cling.registry;
 
 import org.teleal.cling.model.resource.Resource;
+import org.teleal.cling.model.ServiceReference;
 import org.teleal.cling.model.ValidationException;
 import org.teleal.cling.model.meta.Device;
+import org.teleal.cling.model.meta.Service;
 import org.teleal.cling.model.gena.GENASubscription;
 import org.teleal.cling.model.types.DeviceType;
 import org.teleal.cling.model.types.ServiceType;
 import org.teleal.cling.model.types.UDN;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Internal class, required by {@link RegistryImpl}.
@@ -39,25 +45,54 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
 
     protected final RegistryImpl registry;
 
-    protected final Set<RegistryItem<UDN, D>> deviceItems = new HashSet();
-    protected final Set<RegistryItem<String, S>> subscriptionItems = new HashSet();
+    protected final Map<UDN, RegistryItem<UDN, D>> deviceItems = new HashMap();
+    // Read without the registry lock
+    protected final Map<String, RegistryItem<String, S>> subscriptionItems = new ConcurrentHashMap();
+    // Subscription IDs by the (root or embedded device) service they are for
+    protected final Map<ServiceReference, Set<String>> subscriptionIdsByService = new HashMap();
 
-    RegistryItems(RegistryImpl registry) {
+    // When the maintenance has to look at an item next, see maintain()
+    protected final ExpirationQueue<UDN> deviceExpirations = new ExpirationQueue<UDN>();
+    protected final ExpirationQueue<String> subscriptionExpirations = new ExpirationQueue<String>();
+    protected final boolean devicesDueAtHalfTime;
+    protected final boolean subscriptionsDueAtHalfTime;
+
+    // Items expired and refreshed or renewed by the last maintain()
+    protected int expirations;
+    protected int renewals;
+
+    // Immutable snapshot for readers without the registry lock, republished by every change of the device items
+    protected volatile DeviceIndex<D> devices = new DeviceIndex<D>();
+
+    // Root devices removed since beginBatch(), still in the snapshot until endBatch() publishes them at once
+    protected Set<UDN> batchedRemovals;
+
+    /**
+     * @param devicesDueAtHalfTime Set to true if devices are due for maintenance at half their maximum age.
+     * @param subscriptionsDueAtHalfTime Set to true if subscriptions are due for maintenance at half their duration.
+     */
+    RegistryItems(RegistryImpl registry, boolean devicesDueAtHalfTime, boolean subscriptionsDueAtHalfTime) {
         this.registry = registry;
+        this.devicesDueAtHalfTime = devicesDueAtHalfTime;
+        this.subscriptionsDueAtHalfTime = subscriptionsDueAtHalfTime;
     }
 
-    Set<RegistryItem<UDN, D>> getDeviceItems() {
-        return deviceItems;
+    Collection<RegistryItem<UDN, D>> getDeviceItems() {
+        return deviceItems.values();
     }
 
-    Set<RegistryItem<String, S>> getSubscriptionItems() {
-        return subscriptionItems;
+    Collection<RegistryItem<String, S>> getSubscriptionItems() {
+        return subscriptionItems.values();
     }
 
     abstract void add(D device);
     abstract boolean remove(final D device);
     abstract void removeAll();
 
+    /**
+     * Refreshes, renews, or removes the items which are due, see {@link #dueDeviceItem(long)}
+     * and {@link #dueSubscriptionItem(long)}.
+     */
     abstract void maintain();
     abstract void shutdown();
 
@@ -70,17 +105,7 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
      *         no device with the given UDN has been registered.
      */
     D get(UDN udn, boolean rootOnly) {
-        for (RegistryItem<UDN, D> item : deviceItems) {
-            D device = item.getItem();
-            if (device.getIdentity().getUdn().equals(udn)) {
-                return device;
-            }
-            if (!rootOnly) {
-                D foundDevice = (D)item.getItem().findDevice(udn);
-                if (foundDevice != null) return foundDevice;
-            }
-        }
-        return null;
+        return devices.get(udn, rootOnly);
     }
 
     /**
@@ -93,14 +118,7 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
      * @return Any registered root or embedded device with a compatible type.
      */
     Collection<D> get(DeviceType deviceType) {
-        Collection<D> devices = new HashSet();
-        for (RegistryItem<UDN, D> item : deviceItems) {
-            D[] d = (D[])item.getItem().findDevices(deviceType);
-            if (d != null) {
-                devices.addAll(Arrays.asList(d));
-            }
-        }
-        return devices;
+        return devices.get(deviceType);
     }
 
     /**
@@ -110,23 +128,14 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
      * @return Any registered root or embedded device with at least one matching service.
      */
     Collection<D> get(ServiceType serviceType) {
-        Collection<D> devices = new HashSet();
-        for (RegistryItem<UDN, D> item : deviceItems) {
-
-            D[] d = (D[])item.getItem().findDevices(serviceType);
-            if (d != null) {
-                devices.addAll(Arrays.asList(d));
-            }
-        }
-        return devices;
+        return devices.get(serviceType);
     }
 
+    /**
+     * @return An unmodifiable snapshot of the registered root devices.
+     */
     Collection<D> get() {
-        Collection<D> devices = new HashSet();
-        for (RegistryItem<UDN, D> item : deviceItems) {
-            devices.add(item.getItem());
-        }
-        return devices;
+        return devices.get();
     }
 
     boolean contains(D device) {
@@ -134,7 +143,87 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
     }
 
     boolean contains(UDN udn) {
-        return deviceItems.contains(new RegistryItem<UDN, D>(udn));
+        return devices.get(udn, true) != null;
+    }
+
+    /**
+     * Adds the item, replacing any item with the same key, and publishes its device graph.
+     */
+    protected void addDeviceItem(RegistryItem<UDN, D> item) {
+        publishBatchedRemovals();
+        if (devices.get(item.getKey(), true) == item.getItem()) {
+            // Same device graph, only the expiration details change
+            deviceItems.put(item.getKey(), item);
+            scheduleDeviceItem(item);
+            return;
+        }
+        removeDeviceItem(item.getKey());
+        deviceItems.put(item.getKey(), item);
+        scheduleDeviceItem(item);
+        devices = devices.add(item.getItem());
+    }
+
+    /**
+     * Removes the item of the root device with the given UDN, and its device graph from the published snapshot.
+     */
+    protected boolean removeDeviceItem(UDN udn) {
+        if (devices.get(udn, true) == null) return false;
+        if (batchedRemovals != null) {
+            if (!batchedRemovals.add(udn)) return false;
+        } else {
+            devices = devices.remove(udn);
+        }
+        deviceExpirations.cancel(udn);
+        return deviceItems.remove(udn) != null;
+    }
+
+    /**
+     * Collects the device graphs removed until {@link #endBatch()} and publishes them as one new
+     * snapshot, instead of copying the snapshot for every removed device.
+     */
+    protected void beginBatch() {
+        if (batchedRemovals == null) {
+            batchedRemovals = new HashSet<UDN>();
+        }
+    }
+
+    protected void endBatch() {
+        publishBatchedRemovals();
+        batchedRemovals = null;
+    }
+
+    protected void publishBatchedRemovals() {
+        if (batchedRemovals != null && !batchedRemovals.isEmpty()) {
+            devices = devices.remove(batchedRemovals);
+            batchedRemovals.clear();
+        }
+    }
+
+    protected void scheduleDeviceItem(RegistryItem<UDN, D> item) {
+        deviceExpirations.schedule(
+                item.getKey(), item.getExpirationDetails().getExpirationTimestampMillis(devicesDueAtHalfTime)
+        );
+    }
+
+    /**
+     * Returns the next device item which has expired, or reached half its maximum age if the devices
+     * of this registry are due at half time. Callers have to refresh the item with {@link #scheduleDeviceItem}
+     * or remove it, it will not be returned again.
+     *
+     * @return <tt>null</tt> if no more device items are due.
+     */
+    protected RegistryItem<UDN, D> dueDeviceItem(long nowMillis) {
+        UDN udn;
+        while ((udn = deviceExpirations.poll(nowMillis)) != null) {
+            RegistryItem<UDN, D> item = deviceItems.get(udn);
+            if (item == null) continue;
+            if (item.getExpirationDetails().hasExpired(devicesDueAtHalfTime)) {
+                return item;
+            }
+            // Refreshed since it was scheduled
+            scheduleDeviceItem(item);
+        }
+        return null;
     }
 
     void addSubscription(S subscription) {
@@ -146,7 +235,16 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
                         subscription.getActualDurationSeconds()
                 );
 
-        subscriptionItems.add(subscriptionItem);
+        subscriptionItems.put(subscriptionItem.getKey(), subscriptionItem);
+        scheduleSubscriptionItem(subscriptionItem);
+
+        ServiceReference serviceReference = subscription.getService().getReference();
+        Set<String> subscriptionIds = subscriptionIdsByService.get(serviceReference);
+        if (subscriptionIds == null) {
+            subscriptionIds = new HashSet();
+            subscriptionIdsByService.put(serviceReference, subscriptionIds);
+        }
+        subscriptionIds.add(subscriptionItem.getKey());
     }
 
     boolean updateSubscription(S subscription) {
@@ -158,14 +256,71 @@ abstract class RegistryItems<D extends Device, S extends GENASubscription> {
     }
 
     boolean removeSubscription(S subscription) {
-        return subscriptionItems.remove(new RegistryItem<String, S>(subscription.getSubscriptionId()));
+        return removeSubscriptionItem(subscription.getSubscriptionId()) != null;
     }
 
     S getSubscription(String subscriptionId) {
-        for (RegistryItem<String, S> registryItem : subscriptionItems) {
-            if (registryItem.getKey().equals(subscriptionId)) {
-                return registryItem.getItem();
+        RegistryItem<String, S> subscriptionItem = subscriptionItems.get(subscriptionId);
+        return subscriptionItem != null ? subscriptionItem.getItem() : null;
+    }
+
+    protected RegistryItem<String, S> removeSubscriptionItem(String subscriptionId) {
+        RegistryItem<String, S> subscriptionItem = subscriptionItems.remove(subscriptionId);
+        if (subscriptionItem == null) return null;
+        subscriptionExpirations.cancel(subscriptionId);
+        ServiceReference serviceReference = subscriptionItem.getItem().getService().getReference();
+        Set<String> subscriptionIds = subscriptionIdsByService.get(serviceReference);
+        if (subscriptionIds != null && subscriptionIds.remove(subscriptionId) && subscriptionIds.isEmpty()) {
+            subscriptionIdsByService.remove(serviceReference);
+        }
+        return subscriptionItem;
+    }
+
+    /**
+     * Removes all subscriptions for the services of the given device and its embedded devices.
+     *
+     * @return The removed subscription items.
+     */
+    protected List<RegistryItem<String, S>> removeSubscriptionItems(D device) {
+        List<RegistryItem<String, S>> removed = new ArrayList();
+        if (subscriptionIdsByService.isEmpty()) return removed;
+        for (Service service : device.findServices()) {
+            Set<String> subscriptionIds = subscriptionIdsByService.get(service.getReference());
+            if (subscriptionIds == null) continue;
+            for (String subscriptionId : subscriptionIds.toArray(new String[subscriptionIds.size()])) {
+                removed.add(removeSubscriptionItem(subscriptionId));
+            }
+        }
+        return removed;
+    }
+
+    protected void removeAllSubscriptionItems() {
+        subscriptionItems.clear();
+        subscriptionIdsByService.clear();
+        subscriptionExpirations.clear();
+    }
+
+    protected void scheduleSubscriptionItem(RegistryItem<String, S> item) {
+        subscriptionExpirations.schedule(
+                item.getKey(), item.getExpirationDetails().getExpirationTimestampMillis(subscriptionsDueAtHalfTime)
+        );
+    }
+
+    /**
+     * Returns the next subscription item which has expired, or reached half its duration if the subscriptions
+     * of this registry are due at half time. Callers have to reschedule or remove it, it will not be returned again.
+     *
+     * @return <tt>null</tt> if no more subscription items are due.
+     */
+    protected RegistryItem<String, S> dueSubscriptionItem(long nowMillis) {
+        String subscriptionId;
+        while ((subscriptionId = subscriptionExpirations.poll(nowMillis)) != null) {
+            RegistryItem<String, S> item = subscriptionItems.get(subscriptionId);
+            if (item == null) continue;
+            if (item.getExpirationDetails().hasExpired(subscriptionsDueAtHalfTime)) {
+                return item;
             }
+            scheduleSubscriptionItem(item);
         }
         return null;
     }
@@ -31,9 +31,12 @@ import org.teleal.cling.model.meta.RemoteDevice;
  * </p>
  * <p>
  * Listener methods are called in a separate thread, so you can execute
- * expensive procedures without spawning a new thread. The {@link #beforeShutdown(Registry)}
- * and {@link #afterShutdown()} methods are however called in the thread that is stopping
- * the registry and should not be blocking, unless you want to delay the shutdown procedure.
+ * expensive procedures without spawning a new thread. Each listener receives the events
+ * of a device in the order in which the registry produced them, local device events
+ * included, so a registry method may return before its listeners have been called. The
+ * {@link #beforeShutdown(Registry)} and {@link #afterShutdown()} methods are however called in
+ * the thread that is stopping the registry and should not be blocking, unless you want to delay
+ * the shutdown procedure.
  * </p>
  *
  * @author Christian Bauer
@@ -109,6 +112,10 @@ public interface RegistryListener {
 
     /**
      * Called after you add your own device to the {@link org.teleal.cling.registry.Registry}.
+     * <p>
+     * This method is called in a separate thread, {@link Registry#addDevice(LocalDevice)} might
+     * return before it is called.
+     * </p>
      *
      * @param registry The Cling registry of all devices and services know to the local UPnP stack.
      * @param device   The local device added to the {@link org.teleal.cling.registry.Registry}.
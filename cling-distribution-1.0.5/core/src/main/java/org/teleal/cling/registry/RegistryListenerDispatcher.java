@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.registry;
+
+import org.teleal.cling.model.meta.LocalDevice;
+import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.model.types.UDN;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers registry events to each {@link RegistryListener} in order, through one serial mailbox per listener.
+ * <p>
+ * A mailbox is drained in batches on the given executor, by at most one thread at a time, so a listener
+ * sees the events of a device in the order in which the registry produced them, and a slow listener
+ * doesn't hold up the others. Repeated {@link RegistryListener#remoteDeviceUpdated(Registry, RemoteDevice)}
+ * calls for the same device are coalesced: an update is dropped if the mailbox still holds an undelivered
+ * update of the device with no other event of the device after it, or if one was delivered less than
+ * the coalescing window ago.
+ * </p>
+ * <p>
+ * A listener whose callback takes longer than the slow listener threshold, or whose mailbox grows
+ * beyond the depth threshold, is logged as slow.
+ * </p>
+ * <p>
+ * A saturated executor might reject or silently discard the hand-off of a mailbox. The events stay
+ * in the mailbox, {@link #scheduleWaiting()} hands it off again, once the executor hasn't started it
+ * within the hand-off timeout. A hand-off that is started late after all then does nothing.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class RegistryListenerDispatcher {
+
+    private static Logger log = Logger.getLogger(Registry.class.getName());
+
+    final protected Registry registry;
+    final protected Executor executor;
+    final protected int coalesceMillis;
+    final protected int slowListenerMillis;
+    final protected int slowListenerDepth;
+    final protected int batchSize = 64;
+    protected long handoffTimeoutMillis = 10000;
+
+    final protected Map<RegistryListener, Mailbox> mailboxes = new ConcurrentHashMap<RegistryListener, Mailbox>();
+
+    final protected AtomicLong delivered = new AtomicLong();
+    final protected AtomicLong coalesced = new AtomicLong();
+    final protected AtomicLong slowDeliveries = new AtomicLong();
+
+    /**
+     * @param coalesceMillis     Minimum time between two delivered updates of the same device, <code>0</code>
+     *                           only coalesces updates which are still waiting in the mailbox.
+     * @param slowListenerMillis A callback taking longer is logged.
+     * @param slowListenerDepth  A mailbox holding more undelivered events is logged.
+     */
+    public RegistryListenerDispatcher(Registry registry, Executor executor,
+                                      int coalesceMillis, int slowListenerMillis, int slowListenerDepth) {
+        this.registry = registry;
+        this.executor = executor;
+        this.coalesceMillis = coalesceMillis;
+        this.slowListenerMillis = slowListenerMillis;
+        this.slowListenerDepth = slowListenerDepth;
+    }
+
+    public void remoteDeviceDiscoveryStarted(final RemoteDevice device) {
+        dispatch(new Event(device.getIdentity().getUdn(), false) {
+            void deliver(RegistryListener listener) {
+                listener.remoteDeviceDiscoveryStarted(registry, device);
+            }
+        });
+    }
+
+    public void remoteDeviceDiscoveryFailed(final RemoteDevice device, final Exception ex) {
+        dispatch(new Event(device.getIdentity().getUdn(), false) {
+            void deliver(RegistryListener listener) {
+                listener.remoteDeviceDiscoveryFailed(registry, device, ex);
+            }
+        });
+    }
+
+    public void remoteDeviceAdded(final RemoteDevice device) {
+        dispatch(new Event(device.getIdentity().getUdn(), false) {
+            void deliver(RegistryListener listener) {
+                listener.remoteDeviceAdded(registry, device);
+            }
+        });
+    }
+
+    public void remoteDeviceUpdated(final RemoteDevice device) {
+        dispatch(new Event(device.getIdentity().getUdn(), true) {
+            void deliver(RegistryListener listener) {
+                listener.remoteDeviceUpdated(registry, device);
+            }
+        });
+    }
+
+    public void remoteDeviceRemoved(final RemoteDevice device) {
+        dispatch(new Event(device.getIdentity().getUdn(), false) {
+            void deliver(RegistryListener listener) {
+                listener.remoteDeviceRemoved(registry, device);
+            }
+        });
+    }
+
+    public void localDeviceAdded(final LocalDevice device) {
+        dispatch(new Event(device.getIdentity().getUdn(), false) {
+            void deliver(RegistryListener listener) {
+                listener.localDeviceAdded(registry, device);
+            }
+        });
+    }
+
+    public void localDeviceRemoved(final LocalDevice device) {
+        dispatch(new Event(device.getIdentity().getUdn(), false) {
+            void deliver(RegistryListener listener) {
+                listener.localDeviceRemoved(registry, device);
+            }
+        });
+    }
+
+    /**
+     * Forgets the mailbox of a listener, events already in it are still delivered.
+     */
+    public void removeListener(RegistryListener listener) {
+        mailboxes.remove(listener);
+    }
+
+    /**
+     * @return The number of events waiting in all mailboxes.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            depth += mailbox.getDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * @return The number of events waiting for the given listener.
+     */
+    public int getQueueDepth(RegistryListener listener) {
+        Mailbox mailbox = mailboxes.get(listener);
+        return mailbox != null ? mailbox.getDepth() : 0;
+    }
+
+    /**
+     * @return The largest number of events that ever waited in a single mailbox.
+     */
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            max = Math.max(max, mailbox.getMaxDepth());
+        }
+        return max;
+    }
+
+    /**
+     * @return The listeners which are currently busy longer than the slow listener threshold, or
+     *         have more events waiting than the depth threshold.
+     */
+    public Collection<RegistryListener> getSlowListeners() {
+        List<RegistryListener> slow = new ArrayList<RegistryListener>();
+        long now = System.currentTimeMillis();
+        for (Mailbox mailbox : mailboxes.values()) {
+            if (mailbox.isSlow(now)) {
+                slow.add(mailbox.listener);
+            }
+        }
+        return slow;
+    }
+
+    /**
+     * Hands the mailboxes with waiting events to the executor again, if it rejected them or didn't
+     * start them within the hand-off timeout. Called on every registry maintenance run.
+     */
+    public void scheduleWaiting() {
+        long now = System.currentTimeMillis();
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.scheduleWaiting(now);
+        }
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getSlowDeliveryCount() {
+        return slowDeliveries.get();
+    }
+
+    protected void dispatch(Event event) {
+        for (RegistryListener listener : registry.getListeners()) {
+            Mailbox mailbox = mailboxes.get(listener);
+            if (mailbox == null) {
+                synchronized (mailboxes) {
+                    if ((mailbox = mailboxes.get(listener)) == null) {
+                        mailbox = new Mailbox(listener);
+                        mailboxes.put(listener, mailbox);
+                    }
+                }
+            }
+            mailbox.offer(event);
+        }
+    }
+
+    /**
+     * One registry event, delivered to each listener.
+     */
+    protected abstract static class Event {
+
+        final UDN udn;
+        final boolean update;
+
+        Event(UDN udn, boolean update) {
+            this.udn = udn;
+            this.update = update;
+        }
+
+        abstract void deliver(RegistryListener listener);
+    }
+
+    /**
+     * The events waiting for one listener, drained by at most one executor thread at a time.
+     */
+    protected class Mailbox {
+
+        final RegistryListener listener;
+
+        // All guarded by this mailbox
+        final private ArrayDeque<Event> events = new ArrayDeque<Event>();
+        final private Map<UDN, Event> lastEvents = new HashMap<UDN, Event>();
+        final private Map<UDN, Long> lastUpdates = new HashMap<UDN, Long>();
+        private boolean scheduled;
+        private int handoff;
+        private long handedOffAt;
+        private boolean reportedDepth;
+        private int maxDepth;
+
+        private volatile long busySince;
+
+        Mailbox(RegistryListener listener) {
+            this.listener = listener;
+        }
+
+        void offer(Event event) {
+            synchronized (this) {
+                if (event.update) {
+                    Event last = lastEvents.get(event.udn);
+                    Long lastUpdate = lastUpdates.get(event.udn);
+                    if ((last != null && last.update)
+                            || (last == null && lastUpdate != null
+                            && System.currentTimeMillis() - lastUpdate < coalesceMillis)) {
+                        coalesced.incrementAndGet();
+                        return;
+                    }
+                } else {
+                    lastUpdates.remove(event.udn);
+                }
+                events.add(event);
+                lastEvents.put(event.udn, event);
+
+                maxDepth = Math.max(maxDepth, events.size());
+                if (events.size() > slowListenerDepth && !reportedDepth) {
+                    reportedDepth = true;
+                    log.warning("Slow registry listener, " + events.size() + " events waiting: " + listener);
+                }
+                if (scheduled) return;
+                scheduled = true;
+            }
+            // Not while holding the mailbox, the executor might be slow or run the mailbox itself
+            schedule();
+        }
+
+        void scheduleWaiting(long now) {
+            boolean lost;
+            synchronized (this) {
+                lost = scheduled && handedOffAt != 0 && now - handedOffAt >= handoffTimeoutMillis;
+                if ((scheduled && !lost) || events.isEmpty()) return;
+                scheduled = true;
+            }
+            if (lost) {
+                log.warning("Registry listener executor didn't start delivery, " + getDepth() + " events waiting: " + listener);
+            }
+            schedule();
+        }
+
+        /**
+         * Hands the mailbox to the executor, if it is rejected or discarded the events stay until the
+         * next offer or {@link RegistryListenerDispatcher#scheduleWaiting()}.
+         */
+        protected void schedule() {
+            final int token;
+            synchronized (this) {
+                // A previous hand-off which is still waiting in the executor won't deliver anything
+                token = ++handoff;
+                handedOffAt = System.currentTimeMillis();
+            }
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        deliver(token);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                synchronized (this) {
+                    if (handoff == token) {
+                        scheduled = false;
+                        handedOffAt = 0;
+                    }
+                }
+                log.warning("Registry listener executor rejected delivery, " + getDepth() + " events waiting: " + listener);
+            }
+        }
+
+        void deliver(int token) {
+            List<Event> batch = new ArrayList<Event>();
+            synchronized (this) {
+                if (token != handoff || handedOffAt == 0) return;
+                handedOffAt = 0;
+                Event event;
+                while (batch.size() < batchSize && (event = events.poll()) != null) {
+                    batch.add(event);
+                    if (lastEvents.get(event.udn) == event) {
+                        lastEvents.remove(event.udn);
+                    }
+                }
+            }
+
+            for (Event event : batch) {
+                busySince = System.currentTimeMillis();
+                try {
+                    event.deliver(listener);
+                } catch (Exception ex) {
+                    log.log(Level.WARNING, "Registry listener failed: " + listener, ex);
+                }
+                long millis = System.currentTimeMillis() - busySince;
+                busySince = 0;
+                delivered.incrementAndGet();
+                if (millis > slowListenerMillis) {
+                    slowDeliveries.incrementAndGet();
+                    log.warning("Slow registry listener, took " + millis + "ms: " + listener);
+                }
+                if (event.update) {
+                    synchronized (this) {
+                        lastUpdates.put(event.udn, System.currentTimeMillis());
+                    }
+                }
+            }
+
+            synchronized (this) {
+                if (events.isEmpty()) {
+                    scheduled = false;
+                    reportedDepth = false;
+                    return;
+                }
+            }
+            // Let other mailboxes have the executor before the next batch
+            schedule();
+        }
+
+        synchronized int getDepth() {
+            return events.size();
+        }
+
+        synchronized int getMaxDepth() {
+            return maxDepth;
+        }
+
+        boolean isSlow(long now) {
+            long since = busySince;
+            return (since != 0 && now - since > slowListenerMillis) || getDepth() > slowListenerDepth;
+        }
+    }
+
+}
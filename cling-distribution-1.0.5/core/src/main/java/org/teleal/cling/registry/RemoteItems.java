@@ -20,18 +20,12 @@ package org.teleal.cling.registry;
 import org.teleal.cling.model.resource.Resource;
 import org.teleal.cling.model.gena.CancelReason;
 import org.teleal.cling.model.gena.RemoteGENASubscription;
-import org.teleal.cling.model.meta.LocalDevice;
 import org.teleal.cling.model.meta.RemoteDevice;
 import org.teleal.cling.model.meta.RemoteDeviceIdentity;
 import org.teleal.cling.model.types.UDN;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,7 +39,8 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
     private static Logger log = Logger.getLogger(Registry.class.getName());
 
     RemoteItems(RegistryImpl registry) {
-        super(registry);
+        // Outgoing subscriptions are renewed at half their duration
+        super(registry, false, true);
     }
 
     /**
@@ -88,7 +83,7 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
         );
         log.fine("Adding hydrated remote device to registry with "
                          + item.getExpirationDetails().getMaxAgeSeconds() + " seconds expiration: " + device);
-        deviceItems.add(item);
+        addDeviceItem(item);
 
         if (log.isLoggable(Level.FINEST)) {
             StringBuilder sb = new StringBuilder();
@@ -103,25 +98,16 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
 
         // Only notify the listeners when the device is fully usable
         log.fine("Completely hydrated remote device graph available, calling listeners: " + device);
-        for (final RegistryListener listener : registry.getListeners()) {
-            registry.getConfiguration().getRegistryListenerExecutor().execute(
-                    new Runnable() {
-                        public void run() {
-                            listener.remoteDeviceAdded(registry, device);
-                        }
-                    }
-            );
-        }
+        registry.getListenerDispatcher().remoteDeviceAdded(device);
 
     }
 
     boolean update(RemoteDeviceIdentity rdIdentity) {
 
-        for (LocalDevice localDevice : registry.getLocalDevices()) {
-            if (localDevice.findDevice(rdIdentity.getUdn()) != null) {
-                log.fine("Ignoring update, a local device graph contains UDN");
-                return true;
-            }
+        // The local device index also holds the UDNs of all embedded devices, one lookup is enough
+        if (registry.getLocalDevice(rdIdentity.getUdn(), false) != null) {
+            log.fine("Ignoring update, a local device graph contains UDN");
+            return true;
         }
 
         RemoteDevice registeredRemoteDevice = get(rdIdentity.getUdn(), false);
@@ -139,19 +125,10 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
             );
 
             log.fine("Updating expiration of: " + registeredRemoteDevice);
-            deviceItems.remove(item);
-            deviceItems.add(item);
+            addDeviceItem(item);
 
             log.fine("Remote device updated, calling listeners: " + registeredRemoteDevice);
-            for (final RegistryListener listener : registry.getListeners()) {
-                registry.getConfiguration().getRegistryListenerExecutor().execute(
-                        new Runnable() {
-                            public void run() {
-                                listener.remoteDeviceUpdated(registry, item.getItem());
-                            }
-                        }
-                );
-            }
+            registry.getListenerDispatcher().remoteDeviceUpdated(item.getItem());
 
             return true;
 
@@ -182,44 +159,27 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
                 }
             }
 
-            // Active subscriptions
-            Iterator<RegistryItem<String, RemoteGENASubscription>> it = subscriptionItems.iterator();
-            while (it.hasNext()) {
-                final RegistryItem<String, RemoteGENASubscription> outgoingSubscription = it.next();
-
-                UDN subscriptionForUDN =
-                        outgoingSubscription.getItem().getService().getDevice().getIdentity().getUdn();
-
-                if (subscriptionForUDN.equals(registeredDevice.getIdentity().getUdn())) {
-                    log.fine("Removing outgoing subscription: " + outgoingSubscription.getKey());
-                    it.remove();
-                    if (!shuttingDown) {
-                        registry.getConfiguration().getRegistryListenerExecutor().execute(
-                                new Runnable() {
-                                    public void run() {
-                                        outgoingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED, null);
-                                    }
-                                }
-                        );
-                    }
-                }
-            }
-
-            // Only notify listeners if we are NOT in the process of shutting down the registry
-            if (!shuttingDown) {
-                for (final RegistryListener listener : registry.getListeners()) {
+            // Active subscriptions, including those for services of embedded devices
+            for (final RegistryItem<String, RemoteGENASubscription> outgoingSubscription : removeSubscriptionItems(registeredDevice)) {
+                log.fine("Removing outgoing subscription: " + outgoingSubscription.getKey());
+                if (!shuttingDown) {
                     registry.getConfiguration().getRegistryListenerExecutor().execute(
                             new Runnable() {
                                 public void run() {
-                                    listener.remoteDeviceRemoved(registry, registeredDevice);
+                                    outgoingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED, null);
                                 }
                             }
                     );
                 }
             }
 
+            // Only notify listeners if we are NOT in the process of shutting down the registry
+            if (!shuttingDown) {
+                registry.getListenerDispatcher().remoteDeviceRemoved(registeredDevice);
+            }
+
             // Finally, remove the device from the registry
-            deviceItems.remove(new RegistryItem(registeredDevice.getIdentity().getUdn()));
+            removeDeviceItem(registeredDevice.getIdentity().getUdn());
 
             return true;
         }
@@ -233,8 +193,13 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
 
     void removeAll(boolean shuttingDown) {
         RemoteDevice[] allDevices = get().toArray(new RemoteDevice[get().size()]);
-        for (RemoteDevice device : allDevices) {
-            remove(device, shuttingDown);
+        beginBatch();
+        try {
+            for (RemoteDevice device : allDevices) {
+                remove(device, shuttingDown);
+            }
+        } finally {
+            endBatch();
         }
     }
 
@@ -245,43 +210,39 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
     }
 
     void maintain() {
-
-        if (deviceItems.isEmpty()) return;
+        long now = System.currentTimeMillis();
 
         // Remove expired remote devices
-        Map<UDN, RemoteDevice> expiredRemoteDevices = new HashMap();
-        for (RegistryItem<UDN, RemoteDevice> remoteItem : deviceItems) {
-            if (log.isLoggable(Level.FINEST))
-                log.finest("Device '" + remoteItem.getItem() + "' expires in seconds: "
-                                   + remoteItem.getExpirationDetails().getSecondsUntilExpiration());
-            if (remoteItem.getExpirationDetails().hasExpired(false)) {
-                expiredRemoteDevices.put(remoteItem.getKey(), remoteItem.getItem());
+        RegistryItem<UDN, RemoteDevice> remoteItem;
+        beginBatch();
+        try {
+            while ((remoteItem = dueDeviceItem(now)) != null) {
+                if (log.isLoggable(Level.FINE))
+                    log.fine("Removing expired: " + remoteItem.getItem());
+                remove(remoteItem.getItem());
+                expirations++;
             }
-        }
-        for (RemoteDevice remoteDevice : expiredRemoteDevices.values()) {
-            if (log.isLoggable(Level.FINE))
-                log.fine("Removing expired: " + remoteDevice);
-            remove(remoteDevice);
+        } finally {
+            endBatch();
         }
 
         // Renew outgoing subscriptions
-        Set<RemoteGENASubscription> expiredOutgoingSubscriptions = new HashSet();
-        for (RegistryItem<String, RemoteGENASubscription> item : subscriptionItems) {
-            if (item.getExpirationDetails().hasExpired(true)) {
-                expiredOutgoingSubscriptions.add(item.getItem());
-            }
-        }
-        for (RemoteGENASubscription subscription : expiredOutgoingSubscriptions) {
-            if (log.isLoggable(Level.FINEST))
-                log.fine("Renewing outgoing subscription: " + subscription);
-            renewOutgoingSubscription(subscription);
+        RegistryItem<String, RemoteGENASubscription> item;
+        while ((item = dueSubscriptionItem(now)) != null) {
+            if (log.isLoggable(Level.FINE))
+                log.fine("Renewing outgoing subscription: " + item.getItem());
+            renewOutgoingSubscription(item.getItem());
+            // A successful renewal replaces the item, until then try again on every maintenance run
+            long retryMillis = Math.max(1, registry.getConfiguration().getRegistryMaintenanceIntervalMillis());
+            subscriptionExpirations.schedule(item.getKey(), now + retryMillis);
+            renewals++;
         }
     }
 
     public void resume() {
         log.fine("Updating remote device expiration timestamps on resume");
         List<RemoteDeviceIdentity> toUpdate = new ArrayList<RemoteDeviceIdentity>();
-        for (RegistryItem<UDN, RemoteDevice> remoteItem : deviceItems) {
+        for (RegistryItem<UDN, RemoteDevice> remoteItem : deviceItems.values()) {
             toUpdate.add(remoteItem.getItem().getIdentity());
         }
         for (RemoteDeviceIdentity identity : toUpdate) {
@@ -292,7 +253,7 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
     void shutdown() {
         log.fine("Cancelling all outgoing subscriptions to remote devices during shutdown");
         List<RemoteGENASubscription> remoteSubscriptions = new ArrayList();
-        for (RegistryItem<String, RemoteGENASubscription> item : subscriptionItems) {
+        for (RegistryItem<String, RemoteGENASubscription> item : subscriptionItems.values()) {
             remoteSubscriptions.add(item.getItem());
         }
         for (RemoteGENASubscription remoteSubscription : remoteSubscriptions) {
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.registry;
+
+import org.teleal.cling.model.resource.Resource;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Internal class, required by {@link RegistryImpl}.
+ * <p>
+ * An immutable snapshot of all registered resources, safe to read without holding the registry lock.
+ * Resources which rely on the default {@link Resource#matches(java.net.URI)}, that is, all resources
+ * built by the {@link org.teleal.cling.model.Namespace}, are found with a single hash lookup of the
+ * path and query. Only resources with their own matching logic are tested one after another.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+class ResourceRouter {
+
+    final private Map<URI, Resource> exact;
+    final private Resource[] matchers;
+
+    ResourceRouter() {
+        this(Collections.<URI, Resource>emptyMap(), new Resource[0]);
+    }
+
+    private ResourceRouter(Map<URI, Resource> exact, Resource[] matchers) {
+        this.exact = exact;
+        this.matchers = matchers;
+    }
+
+    /**
+     * @return A new snapshot with the given resource, replacing any resource with the same path and query.
+     */
+    ResourceRouter add(Resource resource) {
+        ResourceRouter router = remove(resource.getPathQuery());
+        if (hasDefaultMatching(resource)) {
+            Map<URI, Resource> exact = new HashMap<URI, Resource>(router.exact);
+            exact.put(resource.getPathQuery(), resource);
+            return new ResourceRouter(exact, router.matchers);
+        }
+        Resource[] matchers = Arrays.copyOf(router.matchers, router.matchers.length + 1);
+        matchers[router.matchers.length] = resource;
+        return new ResourceRouter(router.exact, matchers);
+    }
+
+    /**
+     * @return A new snapshot without the resource registered with the given path and query.
+     */
+    ResourceRouter remove(URI pathQuery) {
+        if (exact.containsKey(pathQuery)) {
+            Map<URI, Resource> exact = new HashMap<URI, Resource>(this.exact);
+            exact.remove(pathQuery);
+            return new ResourceRouter(exact, matchers);
+        }
+        for (int i = 0; i < matchers.length; i++) {
+            if (matchers[i].getPathQuery().equals(pathQuery)) {
+                List<Resource> remaining = new ArrayList<Resource>(Arrays.asList(matchers));
+                remaining.remove(i);
+                return new ResourceRouter(exact, remaining.toArray(new Resource[remaining.size()]));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return A new unmodifiable collection of all resources in this snapshot.
+     */
+    Collection<Resource> get() {
+        List<Resource> resources = new ArrayList<Resource>(exact.size() + matchers.length);
+        resources.addAll(exact.values());
+        resources.addAll(Arrays.asList(matchers));
+        return Collections.unmodifiableCollection(resources);
+    }
+
+    Resource get(URI pathQuery) {
+        Resource resource = exact.get(pathQuery);
+        if (resource != null) return resource;
+        for (Resource matcher : matchers) {
+            if (matcher.matches(pathQuery)) {
+                return matcher;
+            }
+        }
+        return null;
+    }
+
+    protected boolean hasDefaultMatching(Resource resource) {
+        try {
+            return resource.getClass().getMethod("matches", URI.class).getDeclaringClass() == Resource.class;
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
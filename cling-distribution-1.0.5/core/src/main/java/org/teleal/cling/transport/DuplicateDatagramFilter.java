@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.transport;
+
+import org.teleal.cling.model.message.IncomingDatagramMessage;
+import org.teleal.cling.model.message.UpnpRequest;
+import org.teleal.cling.model.message.header.UpnpHeader;
+import org.teleal.cling.model.types.NotificationSubtype;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drops repeated SSDP notifications before a protocol is created for them.
+ * <p>
+ * A <em>NOTIFY</em> datagram is a duplicate if the last accepted notification with the same USN
+ * and LOCATION, from the same source address and port, had the same NTS and was accepted less
+ * than the window milliseconds ago. This drops the repetitions of a bulk announcement and
+ * devices that announce themselves far more often than necessary. A different NTS, e.g. a
+ * <em>byebye</em> after an <em>alive</em>, is always accepted. All other datagrams are accepted.
+ * </p>
+ * <p>
+ * The last accepted notifications are kept in a fixed size table of <code>long</code> values,
+ * without any allocation or locking. The slot of a notification is chosen by the hash of its key,
+ * the slot value holds more bits of this hash, the NTS, and the time it was accepted. If two keys
+ * map to the same slot, they replace each other and are accepted more often than necessary.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class DuplicateDatagramFilter {
+
+    static final private int TIME_BITS = 40;
+    static final private long TIME_MASK = (1L << TIME_BITS) - 1;
+    static final private int NTS_BITS = 4;
+    static final private long UNKNOWN_NTS = (1L << NTS_BITS) - 1;
+
+    final protected long windowMillis;
+    final protected AtomicLongArray slots;
+    final protected int mask;
+
+    final protected AtomicLong acceptedCount = new AtomicLong();
+    final protected AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param capacity     The number of slots, rounded up to a power of two.
+     * @param windowMillis Repeated notifications are dropped within this many milliseconds.
+     */
+    public DuplicateDatagramFilter(int capacity, long windowMillis) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.windowMillis = windowMillis;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return The number of datagrams accepted, including all datagrams that are not notifications.
+     */
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+
+    /**
+     * @return The number of duplicate notifications dropped.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return <code>false</code> if the datagram is a duplicate and should be dropped.
+     */
+    public boolean accept(IncomingDatagramMessage msg) {
+        return accept(msg, System.currentTimeMillis());
+    }
+
+    /**
+     * @param now The current time in milliseconds.
+     * @return <code>false</code> if the datagram is a duplicate and should be dropped.
+     */
+    public boolean accept(IncomingDatagramMessage msg, long now) {
+        if (!(msg.getOperation() instanceof UpnpRequest)
+                || ((UpnpRequest) msg.getOperation()).getMethod() != UpnpRequest.Method.NOTIFY) {
+            acceptedCount.incrementAndGet();
+            return true;
+        }
+
+        // Not the typed headers, they are parsed later if the message is accepted
+        String usn = msg.getHeaders().getFirstHeader(UpnpHeader.Type.USN.getHttpName());
+        if (usn == null) {
+            acceptedCount.incrementAndGet();
+            return true;
+        }
+        String location = msg.getHeaders().getFirstHeader(UpnpHeader.Type.LOCATION.getHttpName());
+        String nts = msg.getHeaders().getFirstHeader(UpnpHeader.Type.NTS.getHttpName());
+
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, usn);
+        hash = hash(hash, location);
+        hash = mix(hash ^ msg.getSourceAddress().hashCode());
+        hash = mix(hash ^ msg.getSourcePort());
+
+        int slot = (int) hash & mask;
+        long identity = (hash >>> (TIME_BITS + NTS_BITS)) << NTS_BITS | getNotificationTag(nts);
+        long value = identity << TIME_BITS | (now & TIME_MASK);
+
+        long last = slots.get(slot);
+        if ((last >>> TIME_BITS) == identity && ((now - last) & TIME_MASK) < windowMillis) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        slots.set(slot, value);
+        acceptedCount.incrementAndGet();
+        return true;
+    }
+
+    protected long getNotificationTag(String nts) {
+        if (nts != null) {
+            for (NotificationSubtype subtype : NotificationSubtype.values()) {
+                if (subtype.getHeaderString().equals(nts)) return subtype.ordinal() + 1;
+            }
+        }
+        return UNKNOWN_NTS;
+    }
+
+    static protected long hash(long hash, String s) {
+        if (s == null) return mix(hash);
+        // FNV-1a over the characters, no byte array is created
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    static protected long mix(long h) {
+        // The finalizer of MurmurHash3, spreads the bits for slot and identity
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -28,6 +28,7 @@ import org.teleal.cling.protocol.ProtocolFactory;
 import org.teleal.cling.transport.spi.NetworkAddressFactory;
 import org.teleal.cling.transport.spi.UpnpStream;
 
+import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.util.List;
 
@@ -113,6 +114,14 @@ public interface Router {
      */
     public void send(OutgoingDatagramMessage msg);
 
+    /**
+     * <p>
+     * Call this method to send a UDP datagram that has already been written, e.g. a cached message.
+     * </p>
+     * @param datagram The UDP datagram to send, it is not modified.
+     */
+    public void send(DatagramPacket datagram);
+
     /**
      * <p>
      * Call this method to send a TCP (HTTP) stream message.
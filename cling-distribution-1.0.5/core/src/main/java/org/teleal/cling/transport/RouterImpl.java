@@ -63,6 +63,7 @@ public class RouterImpl implements Router {
 
     protected final StreamClient streamClient;
     protected final NetworkAddressFactory networkAddressFactory;
+    protected final DuplicateDatagramFilter duplicateDatagramFilter;
 
     protected final Map<NetworkInterface, MulticastReceiver> multicastReceivers = new HashMap();
     protected final Map<InetAddress, DatagramIO> datagramIOs = new HashMap();
@@ -89,6 +90,9 @@ public class RouterImpl implements Router {
         this.configuration = configuration;
         this.protocolFactory = protocolFactory;
 
+        // Before any receiver is started
+        this.duplicateDatagramFilter = createDuplicateDatagramFilter();
+
         log.fine("Starting networking services...");
         networkAddressFactory = getConfiguration().createNetworkAddressFactory();
 
@@ -158,6 +162,22 @@ public class RouterImpl implements Router {
         return streamClient;
     }
 
+    /**
+     * @return The filter for repeated notifications with its counters, or <code>null</code> if disabled.
+     */
+    public DuplicateDatagramFilter getDuplicateDatagramFilter() {
+        return duplicateDatagramFilter;
+    }
+
+    /**
+     * Override this method to change the window or disable filtering, returning <code>null</code>.
+     *
+     * @return A filter with 4096 slots, dropping repeated notifications within 2 seconds.
+     */
+    protected DuplicateDatagramFilter createDuplicateDatagramFilter() {
+        return new DuplicateDatagramFilter(4096, 2000);
+    }
+
     protected Map<InetAddress, StreamServer> getStreamServers() {
         return streamServers;
     }
@@ -225,10 +245,19 @@ public class RouterImpl implements Router {
      * datagrams in the protocol factory and e.g. completely disable discovery or only
      * allow notification message from some known services we'd like to work with.
      * </p>
+     * <p>
+     * Before the protocol is created, repeated notifications are dropped by the
+     * {@link DuplicateDatagramFilter}.
+     * </p>
      *
      * @param msg The received datagram message.
      */
     public void received(IncomingDatagramMessage msg) {
+        if (getDuplicateDatagramFilter() != null && !getDuplicateDatagramFilter().accept(msg)) {
+            if (log.isLoggable(Level.FINEST))
+                log.finest("Duplicate notification, ignoring received message: " + msg);
+            return;
+        }
         try {
             ReceivingAsync protocol = getProtocolFactory().createReceivingAsync(msg);
             if (protocol == null) {
@@ -266,6 +295,17 @@ public class RouterImpl implements Router {
         }
     }
 
+    /**
+     * Sends the already written UDP datagram on all bound {@link org.teleal.cling.transport.spi.DatagramIO}s.
+     *
+     * @param datagram The UDP datagram to send.
+     */
+    public void send(DatagramPacket datagram) {
+        for (DatagramIO datagramIO : getDatagramIOs().values()) {
+            datagramIO.send(datagram);
+        }
+    }
+
     /**
      * Sends the TCP stream request with the {@link org.teleal.cling.transport.spi.StreamClient}.
      *
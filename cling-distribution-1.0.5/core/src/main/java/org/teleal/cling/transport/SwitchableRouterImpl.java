@@ -29,6 +29,7 @@ import org.teleal.cling.transport.spi.NetworkAddressFactory;
 import org.teleal.cling.transport.spi.UpnpStream;
 import org.teleal.common.util.Exceptions;
 
+import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Collections;
@@ -184,6 +185,15 @@ public class SwitchableRouterImpl implements SwitchableRouter {
         }
     }
 
+    public void send(DatagramPacket datagram) throws RouterLockAcquisitionException {
+        lock(readLock);
+        try {
+            if (router != null) router.send(datagram);
+        } finally {
+            unlock(readLock);
+        }
+    }
+
     public StreamResponseMessage send(StreamRequestMessage msg) throws RouterLockAcquisitionException {
         lock(readLock);
         try {
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.transport.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of direct buffers for receiving UDP datagrams, shared by all channels.
+ * <p>
+ * A buffer is taken for each received datagram and returned as soon as the datagram has
+ * been read into a message. If the pool is empty a new buffer is allocated, returned
+ * buffers beyond the maximum pool size are dropped.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class DatagramBufferPool {
+
+    final protected int bufferBytes;
+    final protected int maxBuffers;
+
+    final protected ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    final protected AtomicInteger pooled = new AtomicInteger();
+    final protected AtomicLong allocated = new AtomicLong();
+
+    /**
+     * @param bufferBytes The size of each buffer, the largest datagram that can be received.
+     * @param maxBuffers  The maximum number of idle buffers kept in the pool.
+     */
+    public DatagramBufferPool(int bufferBytes, int maxBuffers) {
+        this.bufferBytes = bufferBytes;
+        this.maxBuffers = maxBuffers;
+    }
+
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    /**
+     * @return A cleared buffer, from the pool or newly allocated.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferBytes || pooled.incrementAndGet() > maxBuffers) {
+            if (buffer.capacity() == bufferBytes)
+                pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return The number of idle buffers in the pool.
+     */
+    public int getPooledCount() {
+        return pooled.get();
+    }
+
+    /**
+     * @return The number of buffers allocated since the pool was created.
+     */
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+}
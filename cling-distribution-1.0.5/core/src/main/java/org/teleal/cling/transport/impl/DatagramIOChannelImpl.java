@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.transport.impl;
+
+import org.teleal.cling.model.message.IncomingDatagramMessage;
+import org.teleal.cling.model.message.OutgoingDatagramMessage;
+import org.teleal.cling.transport.Router;
+import org.teleal.cling.transport.spi.DatagramIO;
+import org.teleal.cling.transport.spi.DatagramProcessor;
+import org.teleal.cling.transport.spi.InitializationException;
+import org.teleal.cling.transport.spi.UnsupportedDataException;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation based on a single shared (receive/send) NIO <code>DatagramChannel</code>,
+ * receiving into pooled direct buffers.
+ * <p>
+ * Unlike {@link DatagramIOImpl}, no buffer or packet is allocated for each received
+ * datagram. The datagram is received into a buffer of the {@link DatagramBufferPool}, which
+ * is returned to the pool once the {@link DatagramProcessor} has read the message. Multicast
+ * datagrams are sent on the network interface of the bind address.
+ * </p>
+ * <p>
+ * When constructed with a {@link DatagramSelector}, the channel is non-blocking and registered
+ * with the shared selector on initialization, no thread is occupied by this service.
+ * </p>
+ * <p>
+ * Thread-safety is guaranteed through synchronization of methods of this service and
+ * by the thread-safe underlying channel.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class DatagramIOChannelImpl implements DatagramIO<DatagramIOConfigurationImpl>, DatagramSelector.Receiver {
+
+    private static Logger log = Logger.getLogger(DatagramIO.class.getName());
+
+    final protected DatagramIOConfigurationImpl configuration;
+    final protected DatagramBufferPool bufferPool;
+    final protected DatagramSelector selector;
+
+    protected Router router;
+    protected DatagramProcessor datagramProcessor;
+
+    protected InetSocketAddress localAddress;
+    protected DatagramChannel channel; // For sending unicast & multicast, and reveiving unicast
+
+    public DatagramIOChannelImpl(DatagramIOConfigurationImpl configuration) {
+        this(configuration, new DatagramBufferPool(configuration.getMaxDatagramBytes(), 1));
+    }
+
+    public DatagramIOChannelImpl(DatagramIOConfigurationImpl configuration, DatagramBufferPool bufferPool) {
+        this(configuration, bufferPool, null);
+    }
+
+    /**
+     * @param selector If not <code>null</code>, datagrams are received on the thread(s) of this shared
+     *                 selector and {@link #run()} returns immediately.
+     */
+    public DatagramIOChannelImpl(DatagramIOConfigurationImpl configuration, DatagramBufferPool bufferPool, DatagramSelector selector) {
+        this.configuration = configuration;
+        this.bufferPool = bufferPool;
+        this.selector = selector;
+    }
+
+    public DatagramIOConfigurationImpl getConfiguration() {
+        return configuration;
+    }
+
+    synchronized public void init(InetAddress bindAddress, Router router, DatagramProcessor datagramProcessor) throws InitializationException {
+
+        this.router = router;
+        this.datagramProcessor = datagramProcessor;
+
+        try {
+
+            // Ephemeral port, see DatagramIOImpl
+            log.info("Creating bound channel (for datagram input/output) on: " + bindAddress);
+            localAddress = new InetSocketAddress(bindAddress, 0);
+
+            channel = DatagramChannel.open(
+                    bindAddress instanceof Inet6Address
+                            ? StandardProtocolFamily.INET6
+                            : StandardProtocolFamily.INET
+            );
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, configuration.getReceiveBufferBytes());
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, configuration.getTimeToLive());
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(bindAddress);
+            if (networkInterface != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            }
+            channel.bind(localAddress);
+            if (selector != null) {
+                selector.register(this);
+            }
+
+        } catch (Exception ex) {
+            throw new InitializationException("Could not initialize " + getClass().getSimpleName() + ": " + ex);
+        }
+    }
+
+    /**
+     * @return The ephemeral port of the bound channel, or <code>0</code> before initialization.
+     */
+    synchronized public int getLocalPort() {
+        try {
+            return channel != null ? ((InetSocketAddress) channel.getLocalAddress()).getPort() : 0;
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    synchronized public void stop() {
+        if (channel != null && channel.isOpen()) {
+            if (selector != null) {
+                selector.unregister(this);
+            }
+            try {
+                channel.close();
+            } catch (Exception ex) {
+                log.fine("Could not close unicast channel: " + ex);
+            }
+        }
+    }
+
+    public void run() {
+        if (selector != null) {
+            log.fine("Receiving UDP datagrams on shared selector, not blocking this thread: " + localAddress);
+            return;
+        }
+
+        log.fine("Entering blocking receiving loop, listening for UDP datagrams on: " + localAddress);
+        while (true) {
+            try {
+                receive();
+            } catch (ClosedChannelException ex) {
+                log.fine("Channel closed");
+                break;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public boolean receive() throws IOException {
+        IncomingDatagramMessage message;
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+            if (source == null) {
+                return false;
+            }
+            buffer.flip();
+            message = read(source, buffer);
+        } catch (UnsupportedDataException ex) {
+            log.info("Could not read datagram: " + ex.getMessage());
+            return true;
+        } finally {
+            bufferPool.release(buffer);
+        }
+        router.received(message);
+        return true;
+    }
+
+    protected IncomingDatagramMessage read(InetSocketAddress source, ByteBuffer buffer) throws UnsupportedDataException {
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(
+                    "UDP datagram received from: "
+                            + source.getAddress().getHostAddress()
+                            + ":" + source.getPort()
+                            + " on: " + localAddress
+            );
+        }
+
+        return datagramProcessor.read(localAddress.getAddress(), source, buffer);
+    }
+
+    synchronized public void send(OutgoingDatagramMessage message) {
+        log.fine("Sending message from address: " + localAddress);
+        DatagramPacket packet = datagramProcessor.write(message);
+        log.fine("Sending UDP datagram packet to: " + message.getDestinationAddress() + ":" + message.getDestinationPort());
+        send(packet);
+    }
+
+    synchronized public void send(DatagramPacket datagram) {
+        log.fine("Sending message from address: " + localAddress);
+
+        try {
+            int sent = channel.send(
+                    ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength()),
+                    datagram.getSocketAddress()
+            );
+            if (sent == 0) {
+                // Only happens in non-blocking mode, UDP is unreliable anyway
+                log.fine("Send buffer full, dropped datagram to: " + datagram.getAddress());
+            }
+        } catch (ClosedChannelException ex) {
+            log.fine("Channel closed, aborting datagram send to: " + datagram.getAddress());
+        } catch (SocketException ex) {
+            log.fine("Socket error, aborting datagram send to: " + datagram.getAddress() + ", " + ex);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -28,6 +28,7 @@ public class DatagramIOConfigurationImpl implements DatagramIOConfiguration {
 
     private int timeToLive = 4;
     private int maxDatagramBytes = 640;
+    private int receiveBufferBytes = 32768;
 
     /**
      * Defaults to TTL of '4' and maximum datagram size of 640 bytes (512 per UDA 1.0, 128 byte header).
@@ -55,4 +56,16 @@ public class DatagramIOConfigurationImpl implements DatagramIOConfiguration {
     public void setMaxDatagramBytes(int maxDatagramBytes) {
         this.maxDatagramBytes = maxDatagramBytes;
     }
+
+    /**
+     * @return The size of the socket receive buffer, a backlog of datagrams if we are not fast enough,
+     *         defaults to 32768 bytes.
+     */
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    public void setReceiveBufferBytes(int receiveBufferBytes) {
+        this.receiveBufferBytes = receiveBufferBytes;
+    }
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ package org.teleal.cling.transport.impl;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import org.teleal.cling.model.message.DatagramHeaders;
 import org.teleal.cling.model.message.IncomingDatagramMessage;
 import org.teleal.cling.model.message.OutgoingDatagramMessage;
 import org.teleal.cling.model.message.UpnpHeaders;
@@ -28,16 +29,20 @@ import org.teleal.cling.model.message.UpnpRequest;
 import org.teleal.cling.model.message.UpnpResponse;
 import org.teleal.cling.transport.spi.DatagramProcessor;
 import org.teleal.cling.transport.spi.UnsupportedDataException;
-import org.teleal.common.http.Headers;
 
-import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /**
  * Default implementation.
- * 
+ * <p>
+ * Received datagrams are copied once and scanned without creating strings, header values are
+ * only parsed when a protocol reads them, see {@link DatagramHeaders}.
+ * </p>
+ *
  * @author Christian Bauer
  */
 public class DatagramProcessorImpl implements DatagramProcessor {
@@ -45,24 +50,58 @@ public class DatagramProcessorImpl implements DatagramProcessor {
     private static Logger log = Logger.getLogger(DatagramProcessor.class.getName());
 
     public IncomingDatagramMessage read(InetAddress receivedOnAddress, DatagramPacket datagram) throws UnsupportedDataException {
+        return read(
+                receivedOnAddress,
+                new InetSocketAddress(datagram.getAddress(), datagram.getPort()),
+                ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength())
+        );
+    }
+
+    public IncomingDatagramMessage read(InetAddress receivedOnAddress, InetSocketAddress source, ByteBuffer buffer) throws UnsupportedDataException {
+
+        // The only copy, the headers are read lazily from this array and the buffer might be reused
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+
+        if (log.isLoggable(Level.FINER)) {
+            log.finer("===================================== DATAGRAM BEGIN ============================================");
+            log.finer(new String(data));
+            log.finer("-===================================== DATAGRAM END =============================================");
+        }
 
         try {
 
-            if (log.isLoggable(Level.FINER)) {
-                log.finer("===================================== DATAGRAM BEGIN ============================================");
-                log.finer(new String(datagram.getData()));
-                log.finer("-===================================== DATAGRAM END =============================================");
+            int lineEnd = DatagramHeaders.indexOf(data, (byte) '\n', 0, data.length);
+            int headersStart = Math.min(lineEnd + 1, data.length);
+            if (lineEnd > 0 && data[lineEnd - 1] == '\r') lineEnd--;
+
+            // The three parts of the start line, separated by spaces
+            int first = DatagramHeaders.indexOf(data, (byte) ' ', 0, lineEnd);
+            int second = DatagramHeaders.indexOf(data, (byte) ' ', Math.min(first + 1, lineEnd), lineEnd);
+            if (second == lineEnd) {
+                throw new UnsupportedDataException("Invalid start line: " + new String(data, 0, lineEnd, "ISO-8859-1"));
             }
+            int third = DatagramHeaders.indexOf(data, (byte) ' ', second + 1, lineEnd);
 
-            ByteArrayInputStream is = new ByteArrayInputStream(datagram.getData());
+            DatagramHeaders headers = new DatagramHeaders(data, headersStart, data.length);
 
-            String[] startLine = Headers.readLine(is).split(" ");
-            if (startLine[0].startsWith("HTTP/1.")) {
-                return readResponseMessage(receivedOnAddress, datagram, is, Integer.valueOf(startLine[1]), startLine[2], startLine[0]);
+            if (DatagramHeaders.equalsIgnoreCase(data, 0, Math.min(first, 7), "HTTP/1.")) {
+                return readResponseMessage(
+                        receivedOnAddress, source, headers,
+                        parseStatusCode(data, first + 1, second),
+                        new String(data, second + 1, third - second - 1, "ISO-8859-1"),
+                        DatagramHeaders.equalsIgnoreCase(data, 0, first, "HTTP/1.1") ? 1 : 0
+                );
             } else {
-                return readRequestMessage(receivedOnAddress, datagram, is, startLine[0], startLine[2]);
+                return readRequestMessage(
+                        receivedOnAddress, source, headers,
+                        parseMethod(data, 0, first),
+                        DatagramHeaders.equalsIgnoreCase(data, second + 1, third, "HTTP/1.1") ? 1 : 0
+                );
             }
 
+        } catch (UnsupportedDataException ex) {
+            throw ex;
         } catch (Exception ex) {
             throw new UnsupportedDataException("Could not parse headers: " + ex, ex);
         }
@@ -118,19 +157,16 @@ public class DatagramProcessorImpl implements DatagramProcessor {
     }
 
     protected IncomingDatagramMessage readRequestMessage(InetAddress receivedOnAddress,
-                                                         DatagramPacket datagram,
-                                                         ByteArrayInputStream is,
-                                                         String requestMethod,
-                                                         String httpProtocol) throws Exception {
-
-        // Headers
-        UpnpHeaders headers = new UpnpHeaders(is);
+                                                         InetSocketAddress source,
+                                                         UpnpHeaders headers,
+                                                         UpnpRequest.Method requestMethod,
+                                                         int httpMinorVersion) throws Exception {
 
         // Assemble message
         IncomingDatagramMessage requestMessage;
-        UpnpRequest upnpRequest = new UpnpRequest(UpnpRequest.Method.getByHttpName(requestMethod));
-        upnpRequest.setHttpMinorVersion(httpProtocol.toUpperCase().equals("HTTP/1.1") ? 1 : 0);
-        requestMessage = new IncomingDatagramMessage(upnpRequest, datagram.getAddress(), datagram.getPort(), receivedOnAddress);
+        UpnpRequest upnpRequest = new UpnpRequest(requestMethod);
+        upnpRequest.setHttpMinorVersion(httpMinorVersion);
+        requestMessage = new IncomingDatagramMessage(upnpRequest, source.getAddress(), source.getPort(), receivedOnAddress);
 
         requestMessage.setHeaders(headers);
 
@@ -138,25 +174,44 @@ public class DatagramProcessorImpl implements DatagramProcessor {
     }
 
     protected IncomingDatagramMessage readResponseMessage(InetAddress receivedOnAddress,
-                                                          DatagramPacket datagram,
-                                                          ByteArrayInputStream is,
+                                                          InetSocketAddress source,
+                                                          UpnpHeaders headers,
                                                           int statusCode,
                                                           String statusMessage,
-                                                          String httpProtocol) throws Exception {
-
-        // Headers
-        UpnpHeaders headers = new UpnpHeaders(is);
+                                                          int httpMinorVersion) throws Exception {
 
         // Assemble the message
         IncomingDatagramMessage responseMessage;
         UpnpResponse upnpResponse = new UpnpResponse(statusCode, statusMessage);
-        upnpResponse.setHttpMinorVersion(httpProtocol.toUpperCase().equals("HTTP/1.1") ? 1 : 0);
-        responseMessage = new IncomingDatagramMessage(upnpResponse, datagram.getAddress(), datagram.getPort(), receivedOnAddress);
+        upnpResponse.setHttpMinorVersion(httpMinorVersion);
+        responseMessage = new IncomingDatagramMessage(upnpResponse, source.getAddress(), source.getPort(), receivedOnAddress);
 
         responseMessage.setHeaders(headers);
 
         return responseMessage;
     }
 
+    protected UpnpRequest.Method parseMethod(byte[] data, int start, int end) {
+        for (UpnpRequest.Method method : UpnpRequest.Method.values()) {
+            if (DatagramHeaders.equalsIgnoreCase(data, start, end, method.getHttpName())) {
+                return method;
+            }
+        }
+        return UpnpRequest.Method.UNKNOWN;
+    }
+
+    protected int parseStatusCode(byte[] data, int start, int end) throws UnsupportedDataException {
+        if (start == end || end - start > 3) {
+            throw new UnsupportedDataException("Invalid status code length: " + (end - start));
+        }
+        int statusCode = 0;
+        for (int i = start; i < end; i++) {
+            if (data[i] < '0' || data[i] > '9') {
+                throw new UnsupportedDataException("Invalid status code character: " + (char) data[i]);
+            }
+            statusCode = statusCode * 10 + (data[i] - '0');
+        }
+        return statusCode;
+    }
 
 }
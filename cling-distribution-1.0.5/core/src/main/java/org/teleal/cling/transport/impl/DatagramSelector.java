@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.transport.impl;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives UDP datagrams of many channels on a small, fixed number of selector threads.
+ * <p>
+ * Instead of occupying one blocking thread for every network interface and bind address,
+ * the {@link MulticastReceiverChannelImpl} and {@link DatagramIOChannelImpl} services register
+ * their non-blocking channel with this selector. Channels are assigned to the selector threads
+ * round-robin, all datagrams of a channel are received on the same thread. When a channel is
+ * readable, up to {@link #getMaxDatagramsPerSelect()} datagrams are received before the next
+ * channel gets its turn.
+ * </p>
+ * <p>
+ * The selector threads are started on the given executor when the first channel is registered,
+ * and end when {@link #stop()} is called.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class DatagramSelector {
+
+    private static Logger log = Logger.getLogger(DatagramSelector.class.getName());
+
+    /**
+     * A service with a channel that can be registered with a {@link DatagramSelector}.
+     */
+    public interface Receiver {
+
+        DatagramChannel getChannel();
+
+        /**
+         * Receives and dispatches one datagram, without blocking.
+         *
+         * @return <code>false</code> if no datagram was available.
+         */
+        boolean receive() throws IOException;
+    }
+
+    final protected Executor executor;
+    final protected SelectorLoop[] loops;
+    final protected AtomicLong receivedCount = new AtomicLong();
+
+    protected int nextLoop;
+    protected boolean started;
+
+    /**
+     * @param executor      Runs the selector threads.
+     * @param selectorCount The number of selector threads, each channel is served by one of them.
+     */
+    public DatagramSelector(Executor executor, int selectorCount) {
+        if (selectorCount < 1) {
+            throw new IllegalArgumentException("Selector count must be at least 1: " + selectorCount);
+        }
+        this.executor = executor;
+        this.loops = new SelectorLoop[selectorCount];
+    }
+
+    public int getSelectorCount() {
+        return loops.length;
+    }
+
+    /**
+     * @return The maximum number of datagrams received from a readable channel in one turn, defaults to 16.
+     */
+    public int getMaxDatagramsPerSelect() {
+        return 16;
+    }
+
+    /**
+     * @return The number of datagrams received on all selector threads.
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    synchronized public void register(Receiver receiver) throws IOException {
+        if (!started) {
+            start();
+        }
+        SelectorLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+
+        receiver.getChannel().configureBlocking(false);
+        loop.pending.offer(receiver);
+        loop.selector.wakeup();
+    }
+
+    /**
+     * Stops selecting the receiver's channel, call this before the channel is closed.
+     * <p>
+     * A closed channel is only released by its selector on the next selection, the
+     * selector thread is woken up so that the socket is closed immediately.
+     * </p>
+     */
+    synchronized public void unregister(Receiver receiver) {
+        if (!started) return;
+        for (SelectorLoop loop : loops) {
+            loop.pending.remove(receiver);
+            SelectionKey key = receiver.getChannel().keyFor(loop.selector);
+            if (key != null) {
+                key.cancel();
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    synchronized public void stop() {
+        if (!started) return;
+        for (SelectorLoop loop : loops) {
+            try {
+                loop.selector.close();
+            } catch (IOException ex) {
+                log.fine("Could not close selector: " + ex);
+            }
+        }
+        started = false;
+    }
+
+    protected void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new SelectorLoop(Selector.open());
+        }
+        started = true;
+        for (SelectorLoop loop : loops) {
+            executor.execute(loop);
+        }
+    }
+
+    protected class SelectorLoop implements Runnable {
+
+        final protected Selector selector;
+        final protected ConcurrentLinkedQueue<Receiver> pending = new ConcurrentLinkedQueue<Receiver>();
+
+        public SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        public void run() {
+            log.fine("Entering selector loop, receiving UDP datagrams of registered channels");
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+
+                    Receiver receiver;
+                    while ((receiver = pending.poll()) != null) {
+                        try {
+                            receiver.getChannel().register(selector, SelectionKey.OP_READ, receiver);
+                        } catch (ClosedChannelException ex) {
+                            log.fine("Channel closed before it was registered");
+                        }
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            receive(key);
+                        }
+                    }
+
+                } catch (ClosedSelectorException ex) {
+                    break;
+                } catch (IOException ex) {
+                    log.warning("Selector failed, no longer receiving UDP datagrams: " + ex);
+                    break;
+                }
+            }
+            log.fine("Selector closed");
+        }
+
+        protected void receive(SelectionKey key) {
+            Receiver receiver = (Receiver) key.attachment();
+            try {
+                for (int i = 0; i < getMaxDatagramsPerSelect() && receiver.receive(); i++) {
+                    receivedCount.incrementAndGet();
+                }
+            } catch (ClosedChannelException ex) {
+                log.fine("Channel closed");
+                key.cancel();
+            } catch (Exception ex) {
+                // Don't let one channel (or router) failure stop all others
+                log.log(Level.WARNING, "Could not receive UDP datagram on: " + receiver.getChannel(), ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.transport.impl;
+
+import org.teleal.cling.model.message.IncomingDatagramMessage;
+import org.teleal.cling.transport.Router;
+import org.teleal.cling.transport.spi.DatagramProcessor;
+import org.teleal.cling.transport.spi.InitializationException;
+import org.teleal.cling.transport.spi.MulticastReceiver;
+import org.teleal.cling.transport.spi.UnsupportedDataException;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation based on a NIO <code>DatagramChannel</code>, receiving into pooled direct buffers.
+ * <p>
+ * Unlike {@link MulticastReceiverImpl}, no buffer or packet is allocated for each received
+ * datagram. The datagram is received into a buffer of the {@link DatagramBufferPool}, which
+ * is returned to the pool once the {@link DatagramProcessor} has read the message.
+ * </p>
+ * <p>
+ * When constructed with a {@link DatagramSelector}, the channel is non-blocking and registered
+ * with the shared selector on initialization, no thread is occupied by this service.
+ * </p>
+ * <p>
+ * Thread-safety is guaranteed through synchronization of methods of this service and
+ * by the thread-safe underlying channel.
+ * </p>
+ *
+ * @author Christian Bauer
+ */
+public class MulticastReceiverChannelImpl implements MulticastReceiver<MulticastReceiverConfigurationImpl>, DatagramSelector.Receiver {
+
+    private static Logger log = Logger.getLogger(MulticastReceiver.class.getName());
+
+    final protected MulticastReceiverConfigurationImpl configuration;
+    final protected DatagramBufferPool bufferPool;
+    final protected DatagramSelector selector;
+
+    protected Router router;
+    protected DatagramProcessor datagramProcessor;
+
+    protected NetworkInterface multicastInterface;
+    protected InetSocketAddress multicastAddress;
+    protected DatagramChannel channel;
+    protected MembershipKey membership;
+
+    public MulticastReceiverChannelImpl(MulticastReceiverConfigurationImpl configuration) {
+        this(configuration, new DatagramBufferPool(configuration.getMaxDatagramBytes(), 1));
+    }
+
+    public MulticastReceiverChannelImpl(MulticastReceiverConfigurationImpl configuration, DatagramBufferPool bufferPool) {
+        this(configuration, bufferPool, null);
+    }
+
+    /**
+     * @param selector If not <code>null</code>, datagrams are received on the thread(s) of this shared
+     *                 selector and {@link #run()} returns immediately.
+     */
+    public MulticastReceiverChannelImpl(MulticastReceiverConfigurationImpl configuration, DatagramBufferPool bufferPool, DatagramSelector selector) {
+        this.configuration = configuration;
+        this.bufferPool = bufferPool;
+        this.selector = selector;
+    }
+
+    public MulticastReceiverConfigurationImpl getConfiguration() {
+        return configuration;
+    }
+
+    synchronized public void init(NetworkInterface networkInterface, Router router, DatagramProcessor datagramProcessor) throws InitializationException {
+
+        this.router = router;
+        this.datagramProcessor = datagramProcessor;
+        this.multicastInterface = networkInterface;
+
+        try {
+
+            log.info("Creating wildcard channel (for receiving multicast datagrams) on port: " + configuration.getPort());
+            multicastAddress = new InetSocketAddress(configuration.getGroup(), configuration.getPort());
+
+            channel = DatagramChannel.open(
+                    configuration.getGroup() instanceof Inet6Address
+                            ? StandardProtocolFamily.INET6
+                            : StandardProtocolFamily.INET
+            );
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, configuration.getReceiveBufferBytes());
+            channel.bind(new InetSocketAddress(configuration.getPort()));
+
+            log.info("Joining multicast group: " + multicastAddress + " on network interface: " + multicastInterface.getDisplayName());
+            membership = channel.join(configuration.getGroup(), multicastInterface);
+            if (selector != null) {
+                selector.register(this);
+            }
+
+        } catch (Exception ex) {
+            throw new InitializationException("Could not initialize " + getClass().getSimpleName() + ": " + ex);
+        }
+    }
+
+    synchronized public void stop() {
+        if (channel != null && channel.isOpen()) {
+            if (selector != null) {
+                selector.unregister(this);
+            }
+            if (membership != null) {
+                log.fine("Leaving multicast group");
+                membership.drop();
+            }
+            try {
+                channel.close();
+            } catch (Exception ex) {
+                log.fine("Could not close multicast channel: " + ex);
+            }
+        }
+    }
+
+    public void run() {
+        if (selector != null) {
+            log.fine("Receiving UDP datagrams on shared selector, not blocking this thread: " + multicastAddress);
+            return;
+        }
+
+        log.fine("Entering blocking receiving loop, listening for UDP datagrams on: " + multicastAddress);
+        while (true) {
+            try {
+                receive();
+            } catch (ClosedChannelException ex) {
+                log.fine("Channel closed");
+                break;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    public boolean receive() throws IOException {
+        IncomingDatagramMessage message;
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+            if (source == null) {
+                return false;
+            }
+            buffer.flip();
+            message = read(source, buffer);
+        } catch (UnsupportedDataException ex) {
+            log.info("Could not read datagram: " + ex.getMessage());
+            return true;
+        } finally {
+            bufferPool.release(buffer);
+        }
+        router.received(message);
+        return true;
+    }
+
+    protected IncomingDatagramMessage read(InetSocketAddress source, ByteBuffer buffer) throws UnsupportedDataException {
+
+        InetAddress receivedOnLocalAddress =
+                router.getNetworkAddressFactory().getLocalAddress(
+                        multicastInterface,
+                        multicastAddress.getAddress() instanceof Inet6Address,
+                        source.getAddress()
+                );
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(
+                    "UDP datagram received from: " + source.getAddress().getHostAddress()
+                            + ":" + source.getPort()
+                            + " on local interface: " + multicastInterface.getDisplayName()
+                            + " and address: " + receivedOnLocalAddress.getHostAddress()
+            );
+        }
+
+        return datagramProcessor.read(receivedOnLocalAddress, source, buffer);
+    }
+
+}
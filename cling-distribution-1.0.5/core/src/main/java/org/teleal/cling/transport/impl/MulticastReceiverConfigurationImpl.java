@@ -32,6 +32,7 @@ public class MulticastReceiverConfigurationImpl implements MulticastReceiverConf
     private InetAddress group;
     private int port;
     private int maxDatagramBytes;
+    private int receiveBufferBytes = 32768;
 
     public MulticastReceiverConfigurationImpl(InetAddress group, int port, int maxDatagramBytes) {
         this.group = group;
@@ -81,4 +82,16 @@ public class MulticastReceiverConfigurationImpl implements MulticastReceiverConf
         this.maxDatagramBytes = maxDatagramBytes;
     }
 
+    /**
+     * @return The size of the socket receive buffer, a backlog of datagrams if we are not fast enough,
+     *         defaults to 32768 bytes.
+     */
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    public void setReceiveBufferBytes(int receiveBufferBytes) {
+        this.receiveBufferBytes = receiveBufferBytes;
+    }
+
 }
@@ -74,7 +74,7 @@ public class MulticastReceiverImpl implements MulticastReceiver<MulticastReceive
 
             socket = new MulticastSocket(configuration.getPort());
             socket.setReuseAddress(true);
-            socket.setReceiveBufferSize(32768); // Keep a backlog of incoming datagrams if we are not fast enough
+            socket.setReceiveBufferSize(configuration.getReceiveBufferBytes()); // Keep a backlog of incoming datagrams if we are not fast enough
 
             log.info("Joining multicast group: " + multicastAddress + " on network interface: " + multicastInterface.getDisplayName());
             socket.joinGroup(multicastAddress, multicastInterface);
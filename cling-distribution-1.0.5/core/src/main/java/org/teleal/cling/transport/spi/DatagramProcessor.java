@@ -23,6 +23,8 @@ import org.teleal.cling.model.message.OutgoingDatagramMessage;
 
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /**
  * Reads and creates UDP datagrams from and into UPnP messages.
@@ -48,6 +50,21 @@ public interface DatagramProcessor {
      */
     public IncomingDatagramMessage read(InetAddress receivedOnAddress, DatagramPacket datagram) throws UnsupportedDataException;
 
+    /**
+     * Reads the datagram received into a buffer and instantiates a message.
+     * <p>
+     * The remaining bytes of the buffer are consumed, the buffer can be reused when this
+     * method returns.
+     * </p>
+     *
+     * @param receivedOnAddress The address of the socket on which this datagram was received.
+     * @param source The address and port of the sender.
+     * @param buffer The received UDP datagram, between its position and limit.
+     * @return The populated instance.
+     * @throws UnsupportedDataException If the datagram could not be read, or didn't contain required data.
+     */
+    public IncomingDatagramMessage read(InetAddress receivedOnAddress, InetSocketAddress source, ByteBuffer buffer) throws UnsupportedDataException;
+
     /**
      * Creates a UDP datagram with the content of a message.
      * <p>
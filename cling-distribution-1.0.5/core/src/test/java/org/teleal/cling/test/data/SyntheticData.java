@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.data;
+
+import org.teleal.cling.binding.annotations.AnnotationLocalServiceBinder;
+import org.teleal.cling.model.meta.DeviceDetails;
+import org.teleal.cling.model.meta.DeviceIdentity;
+import org.teleal.cling.model.meta.LocalDevice;
+import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.model.meta.RemoteDeviceIdentity;
+import org.teleal.cling.model.meta.RemoteService;
+import org.teleal.cling.model.types.DeviceType;
+import org.teleal.cling.model.types.UDADeviceType;
+import org.teleal.cling.model.types.UDAServiceId;
+import org.teleal.cling.model.types.UDAServiceType;
+import org.teleal.cling.model.types.UDN;
+import org.teleal.cling.test.gena.GenaSampleData;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+
+/**
+ * Builds any number of distinct device graphs, for measuring the registry at scale.
+ * <p>
+ * Each root device has one service and an embedded device with another service. Root
+ * device and service types are spread over {@link #TYPES} variations, so lookups by type
+ * return a fraction of all devices.
+ * </p>
+ */
+public class SyntheticData {
+
+    public static final int TYPES = 10;
+
+    public static UDN getRootUDN(int index) {
+        return new UDN("synthetic-root-" + index);
+    }
+
+    public static UDN getEmbeddedUDN(int index) {
+        return new UDN("synthetic-embedded-" + index);
+    }
+
+    public static DeviceType getRootDeviceType(int index) {
+        return new UDADeviceType("SyntheticRoot" + (index % TYPES), 1);
+    }
+
+    public static UDAServiceType getRootServiceType(int index) {
+        return new UDAServiceType("SyntheticService" + (index % TYPES), 1);
+    }
+
+    public static URL getDescriptorURL(int index) {
+        try {
+            return new URL("http://127.0.0.1:1234/synthetic/" + index + "/desc.xml");
+        } catch (MalformedURLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public static RemoteDeviceIdentity createRemoteDeviceIdentity(int index, int maxAgeSeconds) {
+        return new RemoteDeviceIdentity(
+                getRootUDN(index),
+                maxAgeSeconds,
+                getDescriptorURL(index),
+                null,
+                SampleData.getLocalBaseAddress()
+        );
+    }
+
+    public static RemoteDevice createRemoteDevice(int index) {
+        RemoteDeviceIdentity identity = createRemoteDeviceIdentity(index, 1800);
+        try {
+            RemoteDevice embedded = new RemoteDevice(
+                    new RemoteDeviceIdentity(getEmbeddedUDN(index), identity),
+                    new UDADeviceType("SyntheticEmbedded", 1),
+                    new DeviceDetails("Synthetic Embedded " + index),
+                    createRemoteService(index, "embedded", new UDAServiceType("SyntheticEmbeddedService", 1))
+            );
+            return new RemoteDevice(
+                    identity,
+                    getRootDeviceType(index),
+                    new DeviceDetails("Synthetic Root " + index),
+                    createRemoteService(index, "root", getRootServiceType(index)),
+                    embedded
+            );
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    protected static RemoteService createRemoteService(int index, String name, UDAServiceType type) throws Exception {
+        String path = "/synthetic/" + index + "/" + name;
+        return new RemoteService(
+                type,
+                new UDAServiceId(name),
+                URI.create(path + "/desc.xml"),
+                URI.create(path + "/control"),
+                URI.create(path + "/events")
+        );
+    }
+
+    public static LocalDevice createLocalDevice(int index) {
+        try {
+            LocalDevice embedded = new LocalDevice(
+                    new DeviceIdentity(new UDN("synthetic-local-embedded-" + index)),
+                    new UDADeviceType("SyntheticEmbedded", 1),
+                    new DeviceDetails("Synthetic Local Embedded " + index),
+                    SampleData.readService(new AnnotationLocalServiceBinder(), GenaSampleData.LocalTestService.class)
+            );
+            return new LocalDevice(
+                    new DeviceIdentity(new UDN("synthetic-local-" + index)),
+                    getRootDeviceType(index),
+                    new DeviceDetails("Synthetic Local " + index),
+                    SampleData.readService(new AnnotationLocalServiceBinder(), GenaSampleData.LocalTestService.class),
+                    embedded
+            );
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
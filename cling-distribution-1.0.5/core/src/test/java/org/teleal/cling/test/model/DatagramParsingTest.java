@@ -28,23 +28,31 @@ import org.teleal.cling.model.message.header.UpnpHeader;
 import org.teleal.cling.model.message.header.ServerHeader;
 import org.teleal.cling.model.message.header.EXTHeader;
 import org.teleal.cling.model.message.header.InterfaceMacHeader;
+import org.teleal.cling.model.message.header.MANHeader;
+import org.teleal.cling.model.message.header.MXHeader;
+import org.teleal.cling.model.message.DatagramHeaders;
 import org.teleal.cling.model.message.UpnpMessage;
 import org.teleal.cling.model.message.UpnpRequest;
+import org.teleal.cling.model.message.UpnpResponse;
 import org.teleal.cling.model.message.OutgoingDatagramMessage;
 import org.teleal.cling.model.message.discovery.OutgoingNotificationRequestRootDevice;
 import org.teleal.cling.test.data.SampleData;
 import org.teleal.cling.test.data.SampleDeviceRoot;
 import org.teleal.cling.transport.spi.DatagramProcessor;
+import org.teleal.cling.transport.spi.UnsupportedDataException;
 import org.teleal.cling.transport.impl.NetworkAddressFactoryImpl;
 import org.teleal.cling.DefaultUpnpServiceConfiguration;
+import org.teleal.common.http.Headers;
 import org.teleal.common.util.HexBin;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 
 
 public class DatagramParsingTest {
@@ -133,4 +141,83 @@ public class DatagramParsingTest {
         Assert.assertEquals(readMsg.getHeaders().getFirstHeader(UpnpHeader.Type.EXT_IFACE_MAC).getString(), msg.getHeaders().getFirstHeader(UpnpHeader.Type.EXT_IFACE_MAC).getString());
     }
 
+    @Test
+    public void readBuffer() throws Exception {
+
+        String source = "M-SEARCH * HTTP/1.1\r\n" +
+                        "host: 239.255.255.250:1900\r\n" +
+                        "Man: \"ssdp:discover\"\r\n" +
+                        "mx:   3 \r\n" +
+                        "St: ssdp:all\r\n" +
+                        "\r\n" +
+                        "NT: not a header, after the blank line\r\n";
+
+        // Datagram somewhere in the middle of a larger buffer
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        buffer.put(new byte[17]);
+        buffer.put(source.getBytes("US-ASCII"));
+        buffer.put(new byte[5]);
+        buffer.flip();
+        buffer.position(17);
+        buffer.limit(17 + source.length());
+
+        DatagramProcessor processor = new DefaultUpnpServiceConfiguration().getDatagramProcessor();
+
+        UpnpMessage<UpnpRequest> msg = processor.read(
+                InetAddress.getByName("127.0.0.1"),
+                new InetSocketAddress("123.123.123.123", 1234),
+                buffer
+        );
+        Assert.assertEquals(buffer.remaining(), 0);
+
+        Assert.assertEquals(msg.getOperation().getMethod(), UpnpRequest.Method.MSEARCH);
+        Assert.assertEquals(msg.getOperation().getHttpMinorVersion(), 1);
+        Assert.assertTrue(msg.getHeaders() instanceof DatagramHeaders);
+
+        // Header names are matched ignoring case, values are trimmed
+        Assert.assertEquals(msg.getHeaders().getFirstHeader("MX"), "3");
+        Assert.assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.MX, MXHeader.class).getValue(), new Integer(3));
+        Assert.assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.ST).getString(), "ssdp:all");
+        Assert.assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.MAN, MANHeader.class).getValue(), "ssdp:discover");
+        Assert.assertNull(msg.getHeaders().getFirstHeader(UpnpHeader.Type.NT));
+        Assert.assertFalse(msg.getHeaders().containsKey(UpnpHeader.Type.USN));
+
+        // The multi-map view is the same as parsed by the regular HTTP header parser
+        Assert.assertEquals(msg.getHeaders().size(), 4);
+        Assert.assertEquals(msg.getHeaders().get("HOST").get(0), "239.255.255.250:1900");
+        Assert.assertEquals(msg.getHeaders().getFirstHeader("mx"), "3");
+    }
+
+    @Test
+    public void readIrregularHeaders() throws Exception {
+
+        String source = "HTTP/1.1 200 OK\r\n" +
+                        "CACHE-CONTROL: max-age=1800\r\n" +
+                        "SERVER: foo/1 UPnP/1.0\r\n" +
+                        "  bar/2\r\n" + // Folded, handled by the regular HTTP header parser
+                        "EXT:\r\n\r\n";
+
+        DatagramPacket packet = new DatagramPacket(source.getBytes(), source.getBytes().length, new InetSocketAddress("123.123.123.123", 1234));
+
+        DatagramProcessor processor = new DefaultUpnpServiceConfiguration().getDatagramProcessor();
+
+        UpnpMessage<UpnpResponse> msg = processor.read(InetAddress.getByName("127.0.0.1"), packet);
+
+        Assert.assertEquals(msg.getOperation().getStatusCode(), 200);
+        Assert.assertEquals(msg.getOperation().getStatusMessage(), "OK");
+        Assert.assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.MAX_AGE, MaxAgeHeader.class).getValue().toString(), "1800");
+        Assert.assertEquals(
+                msg.getHeaders().getFirstHeader("SERVER"),
+                new Headers(new ByteArrayInputStream(source.substring(source.indexOf('\n') + 1).getBytes())).getFirstHeader("SERVER")
+        );
+        assert msg.getHeaders().getFirstHeader(UpnpHeader.Type.EXT) != null;
+    }
+
+    @Test(expectedExceptions = UnsupportedDataException.class)
+    public void readInvalidStartLine() throws Exception {
+        String source = "NOTIFY\r\nNT: upnp:rootdevice\r\n\r\n";
+        DatagramPacket packet = new DatagramPacket(source.getBytes(), source.getBytes().length, new InetSocketAddress("123.123.123.123", 1234));
+        new DefaultUpnpServiceConfiguration().getDatagramProcessor().read(InetAddress.getByName("127.0.0.1"), packet);
+    }
+
 }
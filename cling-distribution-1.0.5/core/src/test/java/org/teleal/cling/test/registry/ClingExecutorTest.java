@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.registry;
+
+import org.teleal.cling.DefaultUpnpServiceConfiguration;
+import org.teleal.cling.DefaultUpnpServiceConfiguration.ClingExecutor;
+import org.teleal.cling.DefaultUpnpServiceConfiguration.ClingThreadFactory;
+import org.teleal.cling.DefaultUpnpServiceConfiguration.ClingVirtualExecutor;
+import org.teleal.cling.DefaultUpnpServiceConfiguration.ClingVirtualThreadFactory;
+import org.teleal.cling.UpnpServiceConfiguration;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ClingExecutorTest {
+
+    @Test
+    public void discardWhenSaturated() throws Exception {
+        ClingExecutor executor = new ClingExecutor(
+                1, 1, new ClingThreadFactory("cling-test-"), new ThreadPoolExecutor.DiscardPolicy()
+        );
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+
+        executor.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                finished.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Runnable queued = new Runnable() {
+            public void run() {
+                finished.countDown();
+            }
+        };
+        executor.execute(queued);
+        executor.execute(queued); // Discarded
+
+        assertEquals(executor.getActiveCount(), 1);
+        assertEquals(executor.getQueueSize(), 1);
+        assertEquals(executor.getRejectedCount(), 1);
+
+        Thread.sleep(100);
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+
+        assertTrue(executor.getMaxLatencyMillis() >= 90);
+        assertTrue(executor.getAverageLatencyMillis() > 0);
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(executor.getCompletedTaskCount(), 2);
+    }
+
+    @Test
+    public void callerRunsWhenSaturated() throws Exception {
+        ClingExecutor executor = new ClingExecutor(
+                1, 1, new ClingThreadFactory("cling-test-"), new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final Thread[] executedBy = new Thread[1];
+        Runnable runnable = new Runnable() {
+            public void run() {
+                executedBy[0] = Thread.currentThread();
+            }
+        };
+        executor.execute(runnable); // Queued
+        executor.execute(runnable); // Runs on this thread
+
+        assertSame(executedBy[0], Thread.currentThread());
+        assertEquals(executor.getRejectedCount(), 1);
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void separatePools() throws Exception {
+        UpnpServiceConfiguration configuration = new DefaultUpnpServiceConfiguration(false) {
+        };
+
+        assertTrue(configuration.getAsyncProtocolExecutor() instanceof ClingExecutor);
+        assertTrue(configuration.getSyncProtocolExecutor() instanceof ClingExecutor);
+        assertTrue(configuration.getRegistryListenerExecutor() instanceof ClingExecutor);
+        assertNotSame(configuration.getAsyncProtocolExecutor(), configuration.getSyncProtocolExecutor());
+        assertNotSame(configuration.getAsyncProtocolExecutor(), configuration.getRegistryListenerExecutor());
+        assertNotSame(configuration.getAsyncProtocolExecutor(), configuration.getMulticastReceiverExecutor());
+
+        configuration.shutdown();
+        assertTrue(((ClingExecutor) configuration.getAsyncProtocolExecutor()).isShutdown());
+        assertTrue(((ClingExecutor) configuration.getMulticastReceiverExecutor()).isShutdown());
+    }
+
+    @Test
+    public void separateVirtualPools() throws Exception {
+        UpnpServiceConfiguration configuration = new DefaultUpnpServiceConfiguration(false) {
+            @Override
+            protected boolean isVirtualThreads() {
+                return true;
+            }
+        };
+
+        Executor async = configuration.getAsyncProtocolExecutor();
+        Executor sync = configuration.getSyncProtocolExecutor();
+        assertNotSame(async, sync);
+        if (ClingVirtualThreadFactory.isSupported()) {
+            // Sized by concurrency, not by platform threads
+            assertEquals(((ClingVirtualExecutor) async).getConcurrency(), 256);
+            assertEquals(((ClingVirtualExecutor) sync).getConcurrency(), 1024);
+        } else {
+            // Regular thread pools
+            assertEquals(((ClingExecutor) async).getMaximumPoolSize(), 16);
+            assertEquals(((ClingExecutor) sync).getMaximumPoolSize(), 32);
+        }
+        configuration.shutdown();
+    }
+
+    @Test
+    public void virtualExecutorLimits() throws Exception {
+        // Any thread factory works, the limits don't depend on virtual threads
+        ClingVirtualExecutor executor = new ClingVirtualExecutor(1, 1, new ClingThreadFactory("cling-test-"));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+        executor.execute(new Runnable() {
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+                finished.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final Thread[] executedBy = new Thread[1];
+        Runnable waiting = new Runnable() {
+            public void run() {
+                executedBy[0] = Thread.currentThread();
+                finished.countDown();
+            }
+        };
+        executor.execute(waiting); // Waits for a permit on its own thread
+        executor.execute(waiting); // Discarded, not run on this thread
+
+        assertEquals(executor.getActiveCount(), 1);
+        assertEquals(executor.getRejectedCount(), 1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getQueueSize() != 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(executor.getQueueSize(), 1);
+
+        release.countDown();
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertNotSame(executedBy[0], Thread.currentThread());
+
+        executor.shutdown();
+        executor.execute(waiting);
+        assertEquals(executor.getRejectedCount(), 2);
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.registry;
+
+import org.teleal.cling.mock.MockUpnpService;
+import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.model.meta.RemoteDeviceIdentity;
+import org.teleal.cling.model.resource.Resource;
+import org.teleal.cling.model.types.DeviceType;
+import org.teleal.cling.model.types.ServiceType;
+import org.teleal.cling.model.types.UDN;
+import org.teleal.cling.registry.Registry;
+import org.teleal.cling.registry.RegistryImpl;
+import org.teleal.cling.test.data.SyntheticData;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures registry operations with 10, 1000, and 10000 synthetic device graphs.
+ * <p>
+ * Not part of the test suite, run it with the test classpath:
+ * </p>
+ * <pre>
+ * java -cp ... org.teleal.cling.test.registry.RegistryBenchmark [size...]
+ * </pre>
+ * <p>
+ * Every remote root device has an embedded device, and there is one local device graph per
+ * ten remote devices. Each operation runs for <code>-Dbenchmark.millis</code> (default 1000)
+ * after a warmup of half that time, the churn benchmark removes and adds remote devices while
+ * <code>-Dbenchmark.readers</code> (default 3) threads look up devices.
+ * </p>
+ */
+public class RegistryBenchmark {
+
+    static final long millis = Long.getLong("benchmark.millis", 1000);
+    static final int readers = Integer.getInteger("benchmark.readers", 3);
+
+    // Keeps the JIT from dropping the measured calls
+    static volatile int sink;
+
+    interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        int[] sizes = args.length > 0 ? new int[args.length] : new int[]{10, 1000, 10000};
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        System.out.println(String.format("%8s  %-28s %12s %14s", "devices", "operation", "ns/op", "ops/s"));
+        for (int size : sizes) {
+            new RegistryBenchmark(size).run();
+        }
+    }
+
+    final int size;
+    final MockUpnpService upnpService;
+    final Registry registry;
+    final RemoteDevice[] remoteDevices;
+    final UDN[] udns;
+    final URI[] resources;
+
+    public RegistryBenchmark(int size) throws Exception {
+        this.size = size;
+        this.upnpService = new MockUpnpService();
+        this.registry = upnpService.getRegistry();
+
+        remoteDevices = new RemoteDevice[size];
+        for (int i = 0; i < size; i++) {
+            remoteDevices[i] = SyntheticData.createRemoteDevice(i);
+            registry.addDevice(remoteDevices[i]);
+        }
+        for (int i = 0; i < Math.max(1, size / 10); i++) {
+            registry.addDevice(SyntheticData.createLocalDevice(i));
+        }
+
+        udns = new UDN[size * 2];
+        for (int i = 0; i < size; i++) {
+            udns[i * 2] = SyntheticData.getRootUDN(i);
+            udns[i * 2 + 1] = SyntheticData.getEmbeddedUDN(i);
+        }
+
+        List<URI> uris = new ArrayList();
+        for (Resource resource : registry.getResources()) {
+            uris.add(resource.getPathQuery());
+        }
+        resources = uris.toArray(new URI[uris.size()]);
+    }
+
+    public void run() throws Exception {
+        final DeviceType[] deviceTypes = new DeviceType[SyntheticData.TYPES];
+        final ServiceType[] serviceTypes = new ServiceType[SyntheticData.TYPES];
+        for (int i = 0; i < SyntheticData.TYPES; i++) {
+            deviceTypes[i] = SyntheticData.getRootDeviceType(i);
+            serviceTypes[i] = SyntheticData.getRootServiceType(i);
+        }
+        final RemoteDeviceIdentity[] identities = new RemoteDeviceIdentity[size];
+        for (int i = 0; i < size; i++) {
+            identities[i] = SyntheticData.createRemoteDeviceIdentity(i, 1800);
+        }
+        final Method maintain = RegistryImpl.class.getDeclaredMethod("maintain");
+        maintain.setAccessible(true);
+
+        measure("getDevice(udn)", new Operation() {
+            public void run(int i) {
+                sink += registry.getDevice(udns[i % udns.length], false) != null ? 1 : 0;
+            }
+        });
+        measure("getDevices(deviceType)", new Operation() {
+            public void run(int i) {
+                sink += registry.getDevices(deviceTypes[i % deviceTypes.length]).size();
+            }
+        });
+        measure("getDevices(serviceType)", new Operation() {
+            public void run(int i) {
+                sink += registry.getDevices(serviceTypes[i % serviceTypes.length]).size();
+            }
+        });
+        measure("getResource(uri)", new Operation() {
+            public void run(int i) {
+                sink += registry.getResource(resources[i % resources.length]) != null ? 1 : 0;
+            }
+        });
+        measure("update(identity)", new Operation() {
+            public void run(int i) {
+                sink += registry.update(identities[i % identities.length]) ? 1 : 0;
+            }
+        });
+        measure("maintain()", new Operation() {
+            public void run(int i) throws Exception {
+                maintain.invoke(registry);
+            }
+        });
+        churn();
+    }
+
+    protected void churn() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        List<Thread> threads = new ArrayList();
+        for (int t = 0; t < readers; t++) {
+            final int offset = t * 7919;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    int i = offset;
+                    while (running.get()) {
+                        sink += registry.getDevice(udns[i++ % udns.length], false) != null ? 1 : 0;
+                        reads.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+
+        long readsBefore = reads.get();
+        long start = System.nanoTime();
+        measure("remove/add churn", new Operation() {
+            public void run(int i) {
+                RemoteDevice device = remoteDevices[i % remoteDevices.length];
+                registry.removeDevice(device);
+                registry.addDevice(device);
+            }
+        });
+        long elapsed = System.nanoTime() - start;
+        long readCount = reads.get() - readsBefore;
+
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report(readers + " readers during churn", elapsed / Math.max(1, readCount), readCount * 1000000000L / elapsed);
+    }
+
+    protected void measure(String name, Operation operation) throws Exception {
+        run(operation, millis / 2);
+        long[] result = run(operation, millis);
+        report(name, result[1] / result[0], result[0] * 1000000000L / result[1]);
+    }
+
+    /**
+     * @return The number of operations and the nanoseconds they took.
+     */
+    protected long[] run(Operation operation, long duration) throws Exception {
+        long count = 0;
+        long start = System.nanoTime();
+        long deadline = start + duration * 1000000L;
+        long now;
+        do {
+            // Check the clock only every few calls, some operations take nanoseconds
+            for (int i = 0; i < 64; i++) {
+                operation.run((int) count++);
+            }
+        } while ((now = System.nanoTime()) < deadline);
+        return new long[]{count, now - start};
+    }
+
+    protected void report(String name, long nanosPerOperation, long operationsPerSecond) {
+        System.out.println(String.format("%8d  %-28s %12d %14d", size, name, nanosPerOperation, operationsPerSecond));
+    }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.registry;
+
+import org.teleal.cling.mock.MockUpnpService;
+import org.teleal.cling.model.gena.CancelReason;
+import org.teleal.cling.model.gena.LocalGENASubscription;
+import org.teleal.cling.model.meta.LocalDevice;
+import org.teleal.cling.model.meta.LocalService;
+import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.model.meta.RemoteDeviceIdentity;
+import org.teleal.cling.model.resource.Resource;
+import org.teleal.cling.model.resource.ServiceEventCallbackResource;
+import org.teleal.cling.model.types.UDADeviceType;
+import org.teleal.cling.model.types.UDAServiceType;
+import org.teleal.cling.registry.Registry;
+import org.teleal.cling.test.data.SampleData;
+import org.teleal.cling.test.data.SampleDeviceEmbeddedOne;
+import org.teleal.cling.test.data.SampleDeviceEmbeddedTwo;
+import org.teleal.cling.test.data.SampleDeviceRoot;
+import org.teleal.cling.test.data.SampleServiceThree;
+import org.teleal.cling.test.data.SampleServiceTwo;
+import org.teleal.cling.test.data.SyntheticData;
+import org.teleal.cling.test.gena.GenaSampleData;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class RegistryIndexTest {
+
+    @Test
+    public void lookupRemoteByUdn() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        registry.addDevice(rd);
+
+        assertEquals(registry.getRemoteDevice(SampleDeviceRoot.getRootUDN(), true), rd);
+        assertNull(registry.getRemoteDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN(), true));
+        assertEquals(
+                registry.getRemoteDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false),
+                rd.findDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN())
+        );
+        assertNull(registry.getLocalDevice(SampleDeviceRoot.getRootUDN(), false));
+
+        // Updating the expiration through an embedded UDN keeps the whole graph indexed
+        registry.update(SampleData.createRemoteDeviceIdentity());
+        assertEquals(registry.getRemoteDevices().size(), 1);
+        assertEquals(registry.getDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN(), false).getRoot(), rd);
+
+        registry.removeDevice(rd);
+        assertNull(registry.getRemoteDevice(SampleDeviceRoot.getRootUDN(), false));
+        assertNull(registry.getRemoteDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN(), false));
+        assertNull(registry.getRemoteDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false));
+        assertEquals(registry.getRemoteDevices().size(), 0);
+    }
+
+    @Test
+    public void lookupLocalByUdn() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        LocalDevice ld = SampleData.createLocalDevice();
+        registry.addDevice(ld);
+
+        assertEquals(registry.getLocalDevice(SampleDeviceRoot.getRootUDN(), true), ld);
+        assertEquals(registry.getDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false).getRoot(), ld);
+        assertNull(registry.getDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), true));
+
+        // Our own announcements of an embedded device are ignored
+        RemoteDeviceIdentity embeddedIdentity =
+                new RemoteDeviceIdentity(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), SampleData.createRemoteDeviceIdentity());
+        assertTrue(registry.update(embeddedIdentity));
+        assertEquals(registry.getRemoteDevices().size(), 0);
+
+        registry.removeDevice(SampleDeviceRoot.getRootUDN());
+        assertNull(registry.getDevice(SampleDeviceRoot.getRootUDN(), false));
+        assertNull(registry.getDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false));
+        assertFalse(registry.update(embeddedIdentity));
+    }
+
+    @Test
+    public void lookupByType() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        registry.addDevice(rd);
+        LocalDevice ld = SampleData.createLocalDevice();
+        // Same UDNs as the remote device, so use a separate registry
+        MockUpnpService localUpnpService = new MockUpnpService();
+        localUpnpService.getRegistry().addDevice(ld);
+
+        // Embedded device two is version 3 and implements all lower versions
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-THREE", 1)).size(), 1);
+        assertEquals(
+                registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-THREE", 3)).iterator().next(),
+                rd.findDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN())
+        );
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-THREE", 4)).size(), 0);
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE", 1)).size(), 1);
+        assertEquals(registry.getDevices(new UDADeviceType("UNKNOWN", 1)).size(), 0);
+
+        assertEquals(
+                registry.getDevices(SampleServiceTwo.getThisServiceType()).iterator().next(),
+                rd.findDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN())
+        );
+        assertEquals(registry.getDevices(new UDAServiceType("MY-SERVICE-TYPE-THREE", 2)).size(), 1);
+        assertEquals(registry.getDevices(new UDAServiceType("MY-SERVICE-TYPE-THREE", 4)).size(), 0);
+        assertEquals(
+                localUpnpService.getRegistry().getDevices(SampleServiceThree.getThisServiceType()).iterator().next(),
+                ld.findDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN())
+        );
+
+        // Updates keep the index, removal clears it
+        registry.addDevice(rd);
+        assertEquals(registry.getDevices(SampleServiceThree.getThisServiceType()).size(), 1);
+        registry.removeAllRemoteDevices();
+        assertTrue(registry.getDevices(SampleServiceThree.getThisServiceType()).isEmpty());
+        assertTrue(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE", 1)).isEmpty());
+    }
+
+    @Test
+    public void removeAllInOneSnapshot() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        int size = SyntheticData.TYPES * 4;
+        for (int i = 0; i < size; i++) {
+            registry.addDevice(SyntheticData.createRemoteDevice(i));
+        }
+        assertEquals(registry.getDevices(SyntheticData.getRootDeviceType(0)).size(), 4);
+        assertEquals(registry.getDevices(SyntheticData.getRootServiceType(1)).size(), 4);
+
+        Collection<RemoteDevice> before = registry.getRemoteDevices();
+        registry.removeAllRemoteDevices();
+
+        // One new snapshot for all removed devices, the earlier snapshot is untouched
+        assertEquals(before.size(), size);
+        assertEquals(registry.getRemoteDevices().size(), 0);
+        for (int i = 0; i < SyntheticData.TYPES; i++) {
+            assertTrue(registry.getDevices(SyntheticData.getRootDeviceType(i)).isEmpty());
+            assertTrue(registry.getDevices(SyntheticData.getRootServiceType(i)).isEmpty());
+        }
+        assertNull(registry.getDevice(SyntheticData.getEmbeddedUDN(0), false));
+
+        // Adding again after the batch publishes a consistent snapshot
+        registry.addDevice(SyntheticData.createRemoteDevice(0));
+        assertEquals(registry.getDevices(SyntheticData.getRootDeviceType(0)).size(), 1);
+        assertEquals(registry.getDevice(SyntheticData.getEmbeddedUDN(0), false).getRoot().getIdentity().getUdn(),
+                     SyntheticData.getRootUDN(0));
+    }
+
+    @Test
+    public void lookupResource() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        registry.addDevice(rd);
+
+        URI callbackPath = upnpService.getConfiguration().getNamespace().getEventCallbackPath(
+                SampleData.getFirstService(rd)
+        );
+        Resource callback = registry.getResource(callbackPath);
+        assertTrue(callback instanceof ServiceEventCallbackResource);
+        assertEquals(registry.getResource(ServiceEventCallbackResource.class, callbackPath), callback);
+        assertEquals(registry.getResource(URI.create(callbackPath.toString() + "/")), callback);
+        assertNull(registry.getResource(URI.create("/no/such/resource")));
+
+        Resource withQuery = new Resource(URI.create("/some/path?foo=bar"), "query");
+        registry.addResource(withQuery);
+        assertEquals(registry.getResource(URI.create("/some/path?foo=bar")), withQuery);
+        assertNull(registry.getResource(URI.create("/some/path")));
+
+        // Resources with their own matching are still asked
+        Resource prefix = new Resource<String>(URI.create("/prefix"), "prefix") {
+            @Override
+            public boolean matches(URI pathQuery) {
+                return pathQuery.getPath().startsWith(getPathQuery().getPath());
+            }
+        };
+        registry.addResource(prefix);
+        assertEquals(registry.getResource(URI.create("/prefix/anything")), prefix);
+
+        // Replacing a resource with the same path and query
+        Resource replacement = new Resource(URI.create("/some/path?foo=bar"), "replacement");
+        registry.addResource(replacement);
+        assertEquals(registry.getResource(URI.create("/some/path?foo=bar")).getModel(), "replacement");
+
+        registry.removeResource(replacement);
+        registry.removeResource(prefix);
+        assertNull(registry.getResource(URI.create("/some/path?foo=bar")));
+        assertNull(registry.getResource(URI.create("/prefix/anything")));
+
+        registry.removeDevice(rd);
+        assertNull(registry.getResource(callbackPath));
+    }
+
+    @Test
+    public void readSnapshots() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        final Registry registry = upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        registry.addDevice(rd);
+
+        Collection<RemoteDevice> before = registry.getRemoteDevices();
+        registry.removeDevice(rd);
+        assertEquals(before.size(), 1);
+        assertEquals(registry.getRemoteDevices().size(), 0);
+        registry.addDevice(rd);
+
+        // Lookups don't wait for a writer holding the registry lock
+        final AtomicInteger found = new AtomicInteger();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                if (registry.getRemoteDevice(SampleDeviceRoot.getRootUDN(), true) != null
+                        && registry.getDevices(SampleServiceThree.getThisServiceType()).size() == 1
+                        && registry.getResources().size() > 0) {
+                    found.incrementAndGet();
+                }
+            }
+        };
+        synchronized (registry) {
+            reader.start();
+            reader.join(5000);
+            assertEquals(found.get(), 1);
+        }
+    }
+
+    @Test
+    public void lookupSubscription() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        LocalDevice ld = GenaSampleData.createTestDevice(GenaSampleData.LocalTestService.class);
+        registry.addDevice(ld);
+
+        LocalService service = ld.getServices()[0];
+        List<URL> urls = new ArrayList<URL>();
+        urls.add(SampleData.getLocalBaseURL());
+
+        final List<CancelReason> ended = new ArrayList<CancelReason>();
+        List<LocalGENASubscription> subscriptions = new ArrayList<LocalGENASubscription>();
+        for (int i = 0; i < 3; i++) {
+            LocalGENASubscription subscription = new LocalGENASubscription(service, 1800, urls) {
+                public void failed(Exception ex) {
+                }
+
+                public void ended(CancelReason reason) {
+                    ended.add(reason);
+                }
+
+                public void established() {
+                }
+
+                public void eventReceived() {
+                }
+            };
+            registry.addLocalSubscription(subscription);
+            subscriptions.add(subscription);
+        }
+
+        for (LocalGENASubscription subscription : subscriptions) {
+            assertEquals(registry.getLocalSubscription(subscription.getSubscriptionId()), subscription);
+        }
+        assertNull(registry.getLocalSubscription("uuid:no-such-subscription"));
+
+        registry.removeLocalSubscription(subscriptions.get(0));
+        assertNull(registry.getLocalSubscription(subscriptions.get(0).getSubscriptionId()));
+        registry.updateLocalSubscription(subscriptions.get(1));
+        assertEquals(registry.getLocalSubscription(subscriptions.get(1).getSubscriptionId()), subscriptions.get(1));
+
+        // Removing the device ends the remaining subscriptions for its services
+        registry.removeDevice(ld);
+        assertNull(registry.getLocalSubscription(subscriptions.get(1).getSubscriptionId()));
+        assertNull(registry.getLocalSubscription(subscriptions.get(2).getSubscriptionId()));
+        assertEquals(ended.size(), 2);
+        assertEquals(ended.get(0), CancelReason.DEVICE_WAS_REMOVED);
+    }
+
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.registry;
+
+import org.teleal.cling.DefaultUpnpServiceConfiguration;
+import org.teleal.cling.DefaultUpnpServiceConfiguration.ClingExecutor;
+import org.teleal.cling.UpnpServiceConfiguration;
+import org.teleal.cling.mock.MockUpnpService;
+import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.registry.DefaultRegistryListener;
+import org.teleal.cling.registry.Registry;
+import org.teleal.cling.registry.RegistryListenerDispatcher;
+import org.teleal.cling.test.data.SampleData;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class RegistryListenerDispatcherTest {
+
+    @Test
+    public void orderedAndCoalesced() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        QueueingExecutor executor = new QueueingExecutor();
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 0, 5000, 1000);
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        dispatcher.remoteDeviceAdded(rd);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.remoteDeviceUpdated(rd);
+        }
+        dispatcher.remoteDeviceRemoved(rd);
+        dispatcher.remoteDeviceAdded(rd);
+        dispatcher.remoteDeviceUpdated(rd);
+
+        // Nine of the ten updates were still waiting behind the first
+        assertEquals(dispatcher.getCoalescedCount(), 9);
+        assertEquals(dispatcher.getQueueDepth(listener), 5);
+        assertEquals(listener.events.size(), 0);
+
+        executor.runAll();
+        assertEquals(listener.events.size(), 5);
+        assertEquals(listener.events.get(0), "added");
+        assertEquals(listener.events.get(1), "updated");
+        assertEquals(listener.events.get(2), "removed");
+        assertEquals(listener.events.get(3), "added");
+        assertEquals(listener.events.get(4), "updated");
+        assertEquals(dispatcher.getQueueDepth(), 0);
+        assertEquals(dispatcher.getMaxQueueDepth(), 5);
+        assertEquals(dispatcher.getDeliveredCount(), 5);
+    }
+
+    @Test
+    public void coalescedWithinWindow() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        QueueingExecutor executor = new QueueingExecutor();
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 60000, 5000, 1000);
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        dispatcher.remoteDeviceUpdated(rd);
+        executor.runAll();
+        dispatcher.remoteDeviceUpdated(rd);
+        executor.runAll();
+        assertEquals(listener.events.size(), 1);
+
+        // Any other event of the device ends the window
+        dispatcher.remoteDeviceRemoved(rd);
+        dispatcher.remoteDeviceUpdated(rd);
+        executor.runAll();
+        assertEquals(listener.events.size(), 3);
+        assertEquals(dispatcher.getCoalescedCount(), 1);
+    }
+
+    @Test
+    public void slowListener() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        QueueingExecutor executor = new QueueingExecutor();
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 0, 5000, 2);
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        dispatcher.remoteDeviceAdded(rd);
+        dispatcher.remoteDeviceRemoved(rd);
+        assertEquals(dispatcher.getSlowListeners().size(), 0);
+        dispatcher.remoteDeviceAdded(rd);
+        assertEquals(dispatcher.getSlowListeners().size(), 1);
+        assertTrue(dispatcher.getSlowListeners().contains(listener));
+
+        executor.runAll();
+        assertEquals(dispatcher.getSlowListeners().size(), 0);
+    }
+
+    @Test
+    public void rejectedDelivery() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        QueueingExecutor executor = new QueueingExecutor();
+        executor.rejecting = true;
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 0, 5000, 1000);
+
+        // The rejection doesn't escape into the registry, the event waits in the mailbox
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        dispatcher.remoteDeviceAdded(rd);
+        assertEquals(dispatcher.getQueueDepth(listener), 1);
+
+        // The next event schedules the mailbox again
+        executor.rejecting = false;
+        dispatcher.remoteDeviceRemoved(rd);
+        executor.runAll();
+        assertEquals(listener.events.size(), 2);
+        assertEquals(listener.events.get(0), "added");
+        assertEquals(listener.events.get(1), "removed");
+    }
+
+    @Test
+    public void rejectedDeliveryRetried() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        QueueingExecutor executor = new QueueingExecutor();
+        executor.rejecting = true;
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 0, 5000, 1000);
+
+        dispatcher.remoteDeviceAdded(SampleData.createRemoteDevice());
+        dispatcher.scheduleWaiting();
+        assertEquals(executor.queue.size(), 0);
+
+        // Without another event, the registry maintenance schedules the waiting mailbox
+        executor.rejecting = false;
+        dispatcher.scheduleWaiting();
+        dispatcher.scheduleWaiting();
+        assertEquals(executor.queue.size(), 1);
+        executor.runAll();
+        assertEquals(listener.events.size(), 1);
+        assertEquals(listener.events.get(0), "added");
+
+        // Nothing waiting, nothing scheduled
+        dispatcher.scheduleWaiting();
+        assertEquals(executor.queue.size(), 0);
+    }
+
+    @Test
+    public void lateDeliveryIgnored() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        QueueingExecutor executor = new QueueingExecutor();
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 0, 5000, 1000) {
+            {
+                handoffTimeoutMillis = 0;
+            }
+        };
+
+        // Not started within the hand-off timeout, handed off again
+        dispatcher.remoteDeviceAdded(SampleData.createRemoteDevice());
+        dispatcher.scheduleWaiting();
+        assertEquals(executor.queue.size(), 2);
+
+        // Only one of the two hand-offs delivers
+        executor.runAll();
+        assertEquals(listener.events.size(), 1);
+        assertEquals(dispatcher.getDeliveredCount(), 1);
+    }
+
+    @Test
+    public void discardedDeliveryRetried() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RecordingListener listener = new RecordingListener();
+        registry.addListener(listener);
+
+        UpnpServiceConfiguration configuration = new DefaultUpnpServiceConfiguration(false) {
+        };
+        ClingExecutor executor = (ClingExecutor) configuration.getRegistryListenerExecutor();
+        RegistryListenerDispatcher dispatcher = new RegistryListenerDispatcher(registry, executor, 0, 5000, 1000) {
+            {
+                handoffTimeoutMillis = 0;
+            }
+        };
+
+        // Fill the pool and its queue
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    // Ignore
+                }
+            }
+        };
+        while (executor.getQueue().remainingCapacity() > 0) {
+            executor.execute(blocking);
+        }
+
+        // Discarded without an exception, the event waits in the mailbox
+        dispatcher.remoteDeviceAdded(SampleData.createRemoteDevice());
+        assertEquals(executor.getRejectedCount(), 1);
+        assertEquals(dispatcher.getQueueDepth(listener), 1);
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executor.getQueueSize() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(executor.getQueueSize(), 0);
+        dispatcher.scheduleWaiting();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(listener.events.size(), 1);
+        assertEquals(listener.events.get(0), "added");
+        configuration.shutdown();
+    }
+
+    class RecordingListener extends DefaultRegistryListener {
+
+        List<String> events = new ArrayList();
+
+        @Override
+        public void remoteDeviceAdded(Registry registry, RemoteDevice device) {
+            events.add("added");
+        }
+
+        @Override
+        public void remoteDeviceUpdated(Registry registry, RemoteDevice device) {
+            events.add("updated");
+        }
+
+        @Override
+        public void remoteDeviceRemoved(Registry registry, RemoteDevice device) {
+            events.add("removed");
+        }
+    }
+
+    class QueueingExecutor implements Executor {
+
+        LinkedList<Runnable> queue = new LinkedList();
+        boolean rejecting;
+
+        public void execute(Runnable command) {
+            if (rejecting) throw new RejectedExecutionException("Rejecting: " + command);
+            queue.add(command);
+        }
+
+        void runAll() {
+            Runnable command;
+            while ((command = queue.poll()) != null) {
+                command.run();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.resources;
+
+import org.teleal.cling.DefaultUpnpServiceConfiguration;
+import org.teleal.cling.UpnpServiceConfiguration;
+import org.teleal.cling.mock.MockUpnpService;
+import org.teleal.cling.model.message.StreamRequestMessage;
+import org.teleal.cling.model.message.StreamResponseMessage;
+import org.teleal.cling.model.message.header.ContentTypeHeader;
+import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.model.meta.RemoteService;
+import org.teleal.cling.model.profile.ControlPointInfo;
+import org.teleal.cling.protocol.RemoteDescriptorCache;
+import org.teleal.cling.protocol.RetrieveRemoteDescriptors;
+import org.teleal.cling.test.data.SampleData;
+import org.teleal.cling.test.data.SampleDeviceRoot;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RemoteDescriptorCacheTest {
+
+    @Test
+    public void writeAndRead() throws Exception {
+        File file = File.createTempFile("cling-descriptors", ".bin");
+        file.delete();
+        try {
+            RemoteDescriptorCache cache = new RemoteDescriptorCache(file, 0);
+            Map<String, String> services = new HashMap();
+            services.put("http://127.0.0.1/svc1.xml", "<scpd>\u00e4</scpd>");
+            services.put("http://127.0.0.1/svc2.xml", "<scpd/>");
+            cache.put(SampleDeviceRoot.getRootUDN(), "http://127.0.0.1/desc.xml", "<root/>", services);
+            cache.flush();
+
+            cache = new RemoteDescriptorCache(file, 0);
+            assertEquals(cache.size(), 1);
+            assertNull(cache.get(SampleDeviceRoot.getRootUDN(), "http://127.0.0.2/desc.xml"));
+            RemoteDescriptorCache.Entry entry = cache.get(SampleDeviceRoot.getRootUDN(), "http://127.0.0.1/desc.xml");
+            assertNotNull(entry);
+            assertEquals(entry.getDeviceDescriptor(), "<root/>");
+            assertEquals(entry.getServiceDescriptor("http://127.0.0.1/svc1.xml"), "<scpd>\u00e4</scpd>");
+            assertEquals(entry.getServiceDescriptor("http://127.0.0.1/svc2.xml"), "<scpd/>");
+            assertNull(entry.getServiceDescriptor("http://127.0.0.1/svc3.xml"));
+
+            // Entries stored longer ago than the maximum age are dropped
+            Thread.sleep(10);
+            cache = new RemoteDescriptorCache(file, 1);
+            assertEquals(cache.size(), 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void flushAgainAfterFailure() throws Exception {
+        // A file where the cache directory should be, so creating the directory fails
+        File parent = File.createTempFile("cling-descriptors", ".dir");
+        File file = new File(parent, "descriptors.bin");
+        try {
+            RemoteDescriptorCache cache = new RemoteDescriptorCache(file, 0);
+            cache.put(SampleDeviceRoot.getRootUDN(), "http://127.0.0.1/desc.xml", "<root/>", new HashMap());
+            try {
+                cache.flush();
+                fail("Directory of cache file shouldn't be created");
+            } catch (IOException ex) {
+                // Expected
+            }
+
+            // Still dirty, written once the directory can be created
+            parent.delete();
+            cache.flush();
+            assertTrue(file.exists());
+            assertEquals(new RemoteDescriptorCache(file, 0).size(), 1);
+        } finally {
+            file.delete();
+            parent.delete();
+        }
+    }
+
+    @Test
+    public void hydrateFromCache() throws Exception {
+        File file = File.createTempFile("cling-descriptors", ".bin");
+        file.delete();
+        try {
+            UpnpServiceConfiguration configuration = new MockUpnpService().getConfiguration();
+            RemoteDevice hydratedDevice = SampleData.createRemoteDevice();
+            final String deviceDescriptorXML =
+                    configuration.getDeviceDescriptorBinderUDA10().generate(
+                            hydratedDevice,
+                            new ControlPointInfo(),
+                            configuration.getNamespace()
+                    );
+            // Requests for service descriptors are not sent in a predictable order
+            final Map<URI, StreamResponseMessage> responses = new HashMap();
+            responses.put(
+                    SampleDeviceRoot.getDeviceDescriptorURL().toURI(),
+                    new StreamResponseMessage(deviceDescriptorXML, ContentTypeHeader.DEFAULT_CONTENT_TYPE_UTF8)
+            );
+            for (RemoteService service : hydratedDevice.findServices()) {
+                responses.put(
+                        service.getDevice().normalizeURI(service.getDescriptorURI()).toURI(),
+                        new StreamResponseMessage(
+                                configuration.getServiceDescriptorBinderUDA10().generate(service),
+                                ContentTypeHeader.DEFAULT_CONTENT_TYPE_UTF8
+                        )
+                );
+            }
+
+            // Cold start retrieves all descriptors and caches them
+            RemoteDescriptorCache cache = new RemoteDescriptorCache(file, 0);
+            MockUpnpService upnpService = createUpnpService(cache, responses);
+            new RetrieveRemoteDescriptors(upnpService, new RemoteDevice(SampleData.createRemoteDeviceIdentity())).run();
+            assertEquals(upnpService.getSentStreamRequestMessages().size(), 4);
+            assertEquals(upnpService.getRegistry().getRemoteDevices().size(), 1);
+            upnpService.shutdown();
+
+            // Warm start hydrates from the cache file, only the device descriptor is revalidated
+            cache = new RemoteDescriptorCache(file, 0);
+            assertEquals(cache.size(), 1);
+            upnpService = createUpnpService(cache, responses);
+            new RetrieveRemoteDescriptors(upnpService, new RemoteDevice(SampleData.createRemoteDeviceIdentity())).run();
+            assertEquals(upnpService.getSentStreamRequestMessages().size(), 1);
+            RemoteDevice device = upnpService.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+            assertNotNull(device);
+            assertEquals(device.findServices().length, 3);
+            for (RemoteService service : device.findServices()) {
+                assertEquals(
+                        service.getActions().length,
+                        hydratedDevice.findService(service.getServiceId()).getActions().length
+                );
+            }
+            assertEquals(cache.size(), 1);
+        } finally {
+            file.delete();
+        }
+    }
+
+    protected MockUpnpService createUpnpService(final RemoteDescriptorCache cache,
+                                                final Map<URI, StreamResponseMessage> responses) {
+        return new MockUpnpService() {
+            UpnpServiceConfiguration cachingConfiguration;
+
+            @Override
+            synchronized public UpnpServiceConfiguration getConfiguration() {
+                // Called by the superclass constructor, before any initializer of this class
+                if (cachingConfiguration == null) {
+                    cachingConfiguration = new DefaultUpnpServiceConfiguration() {
+                        @Override
+                        public RemoteDescriptorCache getRemoteDescriptorCache() {
+                            return cache;
+                        }
+
+                        @Override
+                        protected Executor createDefaultExecutor() {
+                            return new Executor() {
+                                public void execute(Runnable runnable) {
+                                    runnable.run();
+                                }
+                            };
+                        }
+
+                        @Override
+                        protected Executor createAsyncProtocolExecutor() {
+                            return createDefaultExecutor();
+                        }
+
+                        @Override
+                        protected Executor createSyncProtocolExecutor() {
+                            return createDefaultExecutor();
+                        }
+
+                        @Override
+                        protected Executor createRegistryListenerExecutor() {
+                            return createDefaultExecutor();
+                        }
+                    };
+                }
+                return cachingConfiguration;
+            }
+
+            @Override
+            public StreamResponseMessage getStreamResponseMessage(StreamRequestMessage request) {
+                return responses.get(request.getUri());
+            }
+        };
+    }
+
+}
@@ -17,6 +17,7 @@
 
 package org.teleal.cling.test.ssdp;
 
+import org.teleal.cling.UpnpService;
 import org.teleal.cling.mock.MockUpnpService;
 import org.teleal.cling.model.ServerClientTokens;
 import org.teleal.cling.model.message.OutgoingDatagramMessage;
@@ -24,6 +25,7 @@ import org.teleal.cling.model.message.UpnpMessage;
 import org.teleal.cling.model.message.header.UpnpHeader;
 import org.teleal.cling.model.meta.LocalDevice;
 import org.teleal.cling.model.types.NotificationSubtype;
+import org.teleal.cling.protocol.AnnouncementCache;
 import org.teleal.cling.protocol.async.SendingNotificationAlive;
 import org.teleal.cling.protocol.async.SendingNotificationByebye;
 import org.teleal.cling.test.data.SampleData;
@@ -31,7 +33,13 @@ import org.teleal.cling.test.data.SampleDeviceRoot;
 import org.teleal.cling.test.data.SampleUSNHeaders;
 import org.testng.annotations.Test;
 
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 
 
 public class AdvertisementTest {
@@ -74,6 +82,60 @@ public class AdvertisementTest {
         SampleUSNHeaders.assertUSNHeaders(upnpService.getOutgoingDatagramMessages(), rootDevice, embeddedDevice, UpnpHeader.Type.NT);
     }
 
+    @Test
+    public void sendCachedAliveMessages() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+        final AnnouncementCache cache = new AnnouncementCache();
+
+        LocalDevice rootDevice = SampleData.createLocalDevice();
+
+        new CachedSendingNotificationAlive(upnpService, rootDevice, cache).run();
+        List<DatagramPacket> datagrams = new ArrayList(upnpService.getOutgoingDatagramPackets());
+
+        assertEquals(upnpService.getOutgoingDatagramMessages().size(), 0);
+        assertEquals(cache.size(), 1);
+
+        // Written once, sent again in each repetition
+        int count = datagrams.size() / 3;
+        assertEquals(datagrams.size(), count * 3);
+        for (int i = 0; i < datagrams.size(); i++) {
+            assertSame(datagrams.get(i), datagrams.get(i % count));
+        }
+
+        // The same datagrams as written without the cache
+        MockUpnpService uncachedUpnpService = new MockUpnpService();
+        new SendingNotificationAlive(uncachedUpnpService, rootDevice).run();
+        List<OutgoingDatagramMessage> msgs = uncachedUpnpService.getOutgoingDatagramMessages();
+        assertEquals(msgs.size(), datagrams.size());
+        for (int i = 0; i < count; i++) {
+            DatagramPacket written = upnpService.getConfiguration().getDatagramProcessor().write(msgs.get(i));
+            assertEquals(new String(datagrams.get(i).getData()), new String(written.getData()));
+            assertEquals(datagrams.get(i).getSocketAddress(), written.getSocketAddress());
+        }
+
+        // Later notifications don't write anything
+        upnpService.getOutgoingDatagramPackets().clear();
+        new CachedSendingNotificationAlive(upnpService, rootDevice, cache).run();
+        assertSame(upnpService.getOutgoingDatagramPackets().get(0), datagrams.get(0));
+
+        // Not for another instance of the device, registered again with the same UDN
+        upnpService.getOutgoingDatagramPackets().clear();
+        LocalDevice newRootDevice = SampleData.createLocalDevice();
+        new CachedSendingNotificationAlive(upnpService, newRootDevice, cache).run();
+        assertNotSame(upnpService.getOutgoingDatagramPackets().get(0), datagrams.get(0));
+        assertEquals(cache.size(), 1);
+
+        // Byebye means the device is gone
+        new SendingNotificationByebye(upnpService, newRootDevice) {
+            @Override
+            protected AnnouncementCache getAnnouncementCache() {
+                return cache;
+            }
+        }.run();
+        assertEquals(cache.size(), 0);
+    }
+
     protected void assertAliveMsgBasics(UpnpMessage msg) {
         assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.NTS).getValue(), NotificationSubtype.ALIVE);
         assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.LOCATION).getValue().toString(), SampleDeviceRoot.getDeviceDescriptorURL().toString());
@@ -85,4 +147,24 @@ public class AdvertisementTest {
         assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.NTS).getValue(), NotificationSubtype.BYEBYE);
     }
 
+    protected static class CachedSendingNotificationAlive extends SendingNotificationAlive {
+
+        final protected AnnouncementCache cache;
+
+        public CachedSendingNotificationAlive(UpnpService upnpService, LocalDevice device, AnnouncementCache cache) {
+            super(upnpService, device);
+            this.cache = cache;
+        }
+
+        @Override
+        protected AnnouncementCache getAnnouncementCache() {
+            return cache;
+        }
+
+        @Override
+        protected int getBulkIntervalMilliseconds() {
+            return 0;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.ssdp;
+
+import org.teleal.cling.mock.MockUpnpService;
+import org.teleal.cling.model.message.IncomingDatagramMessage;
+import org.teleal.cling.transport.impl.DatagramBufferPool;
+import org.teleal.cling.transport.impl.DatagramIOChannelImpl;
+import org.teleal.cling.transport.impl.DatagramIOConfigurationImpl;
+import org.teleal.cling.transport.impl.DatagramSelector;
+import org.testng.annotations.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DatagramChannelTest {
+
+    @Test
+    public void receiveIntoPooledBuffers() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        DatagramBufferPool bufferPool = new DatagramBufferPool(640, 4);
+
+        DatagramIOChannelImpl receiver = new DatagramIOChannelImpl(new DatagramIOConfigurationImpl(), bufferPool);
+        receiver.init(loopback, upnpService.getRouter(), upnpService.getConfiguration().getDatagramProcessor());
+        DatagramIOChannelImpl sender = new DatagramIOChannelImpl(new DatagramIOConfigurationImpl());
+        sender.init(loopback, upnpService.getRouter(), upnpService.getConfiguration().getDatagramProcessor());
+
+        Thread receiving = new Thread(receiver);
+        receiving.start();
+        try {
+            InetSocketAddress destination = new InetSocketAddress(loopback, receiver.getLocalPort());
+
+            send(sender, destination,
+                 "NOTIFY * HTTP/1.1\r\n" +
+                         "HOST: 239.255.255.250:1900\r\n" +
+                         "NTS: ssdp:alive\r\n" +
+                         "X-EXTRA: only in the first datagram\r\n\r\n"
+            );
+            // No blank line, the parser reads to the end of the datagram and must not see the previous one
+            send(sender, destination,
+                 "NOTIFY * HTTP/1.1\r\n" +
+                         "HOST: 239.255.255.250:1900\r\n" +
+                         "NTS: ssdp:byebye\r\n"
+            );
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (upnpService.getIncomingDatagramMessages().size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(upnpService.getIncomingDatagramMessages().size(), 2);
+
+            IncomingDatagramMessage first = upnpService.getIncomingDatagramMessages().get(0);
+            IncomingDatagramMessage second = upnpService.getIncomingDatagramMessages().get(1);
+            assertTrue(hasHeader(first, "X-EXTRA"));
+            assertFalse(hasHeader(second, "X-EXTRA"));
+            assertEquals(second.getSourcePort(), sender.getLocalPort());
+            assertEquals(second.getLocalAddress(), loopback);
+
+            // One buffer, received into and returned twice
+            assertEquals(bufferPool.getAllocatedCount(), 1);
+        } finally {
+            receiver.stop();
+            sender.stop();
+            receiving.join(5000);
+        }
+        assertFalse(receiving.isAlive());
+    }
+
+    @Test
+    public void receiveOnSharedSelector() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        DatagramBufferPool bufferPool = new DatagramBufferPool(640, 4);
+
+        final Thread[] selectorThread = new Thread[1];
+        DatagramSelector selector = new DatagramSelector(
+                new Executor() {
+                    public void execute(Runnable runnable) {
+                        selectorThread[0] = new Thread(runnable);
+                        selectorThread[0].start();
+                    }
+                },
+                1
+        );
+
+        DatagramIOChannelImpl[] receivers = new DatagramIOChannelImpl[3];
+        for (int i = 0; i < receivers.length; i++) {
+            receivers[i] = new DatagramIOChannelImpl(new DatagramIOConfigurationImpl(), bufferPool, selector);
+            receivers[i].init(loopback, upnpService.getRouter(), upnpService.getConfiguration().getDatagramProcessor());
+            // Returns immediately, no thread is occupied
+            receivers[i].run();
+        }
+        DatagramIOChannelImpl sender = new DatagramIOChannelImpl(new DatagramIOConfigurationImpl());
+        sender.init(loopback, upnpService.getRouter(), upnpService.getConfiguration().getDatagramProcessor());
+
+        try {
+            for (DatagramIOChannelImpl receiver : receivers) {
+                send(sender, new InetSocketAddress(loopback, receiver.getLocalPort()),
+                     "NOTIFY * HTTP/1.1\r\n" +
+                             "HOST: 239.255.255.250:1900\r\n" +
+                             "NTS: ssdp:alive\r\n\r\n"
+                );
+            }
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (selector.getReceivedCount() < receivers.length && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(selector.getReceivedCount(), receivers.length);
+            assertEquals(upnpService.getIncomingDatagramMessages().size(), receivers.length);
+            for (IncomingDatagramMessage message : upnpService.getIncomingDatagramMessages()) {
+                assertEquals(message.getLocalAddress(), loopback);
+                assertEquals(message.getSourcePort(), sender.getLocalPort());
+            }
+        } finally {
+            for (DatagramIOChannelImpl receiver : receivers) {
+                receiver.stop();
+            }
+            sender.stop();
+            selector.stop();
+        }
+
+        selectorThread[0].join(5000);
+        assertFalse(selectorThread[0].isAlive());
+        for (DatagramIOChannelImpl receiver : receivers) {
+            assertFalse(receiver.getChannel().isOpen());
+        }
+    }
+
+    protected void send(DatagramIOChannelImpl sender, InetSocketAddress destination, String data) throws Exception {
+        byte[] bytes = data.getBytes("US-ASCII");
+        sender.send(new DatagramPacket(bytes, bytes.length, destination));
+    }
+
+    protected boolean hasHeader(IncomingDatagramMessage message, String name) {
+        for (String key : message.getHeaders().keySet()) {
+            if (key.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Teleal GmbH, Switzerland
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.teleal.cling.test.ssdp;
+
+import org.teleal.cling.model.message.IncomingDatagramMessage;
+import org.teleal.cling.transport.DuplicateDatagramFilter;
+import org.teleal.cling.transport.impl.DatagramProcessorImpl;
+import org.testng.annotations.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DuplicateDatagramFilterTest {
+
+    public static final String USN = "uuid:MY-DEVICE-123::upnp:rootdevice";
+    public static final String LOCATION = "http://10.0.0.2:8080/dev/MY-DEVICE-123/desc.xml";
+
+    @Test
+    public void dropRepeatedNotifications() throws Exception {
+        DuplicateDatagramFilter filter = new DuplicateDatagramFilter(64, 1000);
+
+        assertTrue(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 10000));
+        assertFalse(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 10100));
+        assertFalse(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 10999));
+
+        // Another source port, USN, or location is another notification
+        assertTrue(filter.accept(notify("ssdp:alive", USN, LOCATION, 1901), 10100));
+        assertTrue(filter.accept(notify("ssdp:alive", "uuid:MY-DEVICE-123", LOCATION, 1900), 10100));
+        assertTrue(filter.accept(notify("ssdp:alive", USN, "http://10.0.0.3:8080/desc.xml", 1900), 10100));
+
+        // The window starts with the last accepted notification
+        assertTrue(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 11000));
+        assertFalse(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 11500));
+
+        assertEquals(filter.getAcceptedCount(), 5);
+        assertEquals(filter.getDroppedCount(), 3);
+    }
+
+    @Test
+    public void acceptChangedSubtype() throws Exception {
+        DuplicateDatagramFilter filter = new DuplicateDatagramFilter(64, 1000);
+
+        assertTrue(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 10000));
+        assertTrue(filter.accept(notify("ssdp:byebye", USN, LOCATION, 1900), 10100));
+        assertFalse(filter.accept(notify("ssdp:byebye", USN, LOCATION, 1900), 10200));
+
+        // Back again, must not be dropped although it is the same as the first
+        assertTrue(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 10300));
+        assertFalse(filter.accept(notify("ssdp:alive", USN, LOCATION, 1900), 10400));
+    }
+
+    @Test
+    public void acceptOtherDatagrams() throws Exception {
+        DuplicateDatagramFilter filter = new DuplicateDatagramFilter(64, 1000);
+
+        String search = "M-SEARCH * HTTP/1.1\r\n" +
+                "HOST: 239.255.255.250:1900\r\n" +
+                "MAN: \"ssdp:discover\"\r\n" +
+                "MX: 3\r\n" +
+                "ST: ssdp:all\r\n\r\n";
+        assertTrue(filter.accept(read(search, 1900), 10000));
+        assertTrue(filter.accept(read(search, 1900), 10000));
+
+        // Not a valid notification, but not up to this filter to decide
+        String noUSN = "NOTIFY * HTTP/1.1\r\n" +
+                "NTS: ssdp:alive\r\n\r\n";
+        assertTrue(filter.accept(read(noUSN, 1900), 10000));
+        assertTrue(filter.accept(read(noUSN, 1900), 10000));
+
+        assertEquals(filter.getDroppedCount(), 0);
+    }
+
+    protected IncomingDatagramMessage notify(String nts, String usn, String location, int sourcePort) throws Exception {
+        return read(
+                "NOTIFY * HTTP/1.1\r\n" +
+                        "HOST: 239.255.255.250:1900\r\n" +
+                        "CACHE-CONTROL: max-age=1800\r\n" +
+                        "LOCATION: " + location + "\r\n" +
+                        "NT: upnp:rootdevice\r\n" +
+                        "NTS: " + nts + "\r\n" +
+                        "USN: " + usn + "\r\n\r\n",
+                sourcePort
+        );
+    }
+
+    protected IncomingDatagramMessage read(String data, int sourcePort) throws Exception {
+        byte[] bytes = data.getBytes("US-ASCII");
+        return new DatagramProcessorImpl().read(
+                InetAddress.getByName("127.0.0.1"),
+                new DatagramPacket(bytes, bytes.length, new InetSocketAddress("10.0.0.2", sourcePort))
+        );
+    }
+
+}
@@ -21,6 +21,7 @@ import org.teleal.cling.mock.MockUpnpService;
 import org.teleal.cling.model.ExpirationDetails;
 import org.teleal.cling.model.resource.Resource;
 import org.teleal.cling.model.meta.RemoteDevice;
+import org.teleal.cling.registry.RegistryImpl;
 import org.teleal.cling.test.data.SampleData;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -81,6 +82,32 @@ public class RegistryExpirationTest {
         upnpService.shutdown();
     }
 
+    @Test
+    public void addAndExpireCounted() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService(false, true);
+        RegistryImpl registry = (RegistryImpl) upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice(
+                SampleData.createRemoteDeviceIdentity(1)
+        );
+        registry.addDevice(rd);
+        Resource resource = new Resource(URI.create("/this/is/a/test"), "foo");
+        registry.addResource(resource, 1);
+        Resource unlimited = new Resource(URI.create("/this/is/another/test"), "bar");
+        registry.addResource(unlimited);
+
+        Thread.sleep(3000);
+
+        Assert.assertEquals(registry.getRemoteDevices().size(), 0);
+        Assert.assertEquals(registry.getResources().size(), 1);
+        // The device and the test resource, the device's own resources are removed with it
+        Assert.assertEquals(registry.getTotalExpirations(), 2);
+        Assert.assertEquals(registry.getTotalRenewals(), 0);
+
+        upnpService.shutdown();
+    }
+
     @Test
     public void addResourceAndExpire() throws Exception {
 
@@ -17,7 +17,9 @@
 
 package org.teleal.cling.test.ssdp;
 
+import org.teleal.cling.DefaultUpnpServiceConfiguration;
 import org.teleal.cling.UpnpService;
+import org.teleal.cling.UpnpServiceConfiguration;
 import org.teleal.cling.model.Constants;
 import org.teleal.cling.model.Namespace;
 import org.teleal.cling.model.message.IncomingDatagramMessage;
@@ -41,6 +43,7 @@ import org.teleal.cling.model.message.header.UpnpHeader;
 import org.teleal.cling.model.meta.LocalDevice;
 import org.teleal.cling.model.meta.Service;
 import org.teleal.cling.model.types.NotificationSubtype;
+import org.teleal.cling.protocol.SearchResponseScheduler;
 import org.teleal.cling.protocol.async.ReceivingSearch;
 import org.teleal.cling.mock.MockUpnpService;
 import org.teleal.cling.test.data.SampleData;
@@ -50,8 +53,12 @@ import org.testng.annotations.Test;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 
 public class SearchReceivedTest {
@@ -251,6 +258,103 @@ public class SearchReceivedTest {
         assert upnpService.getOutgoingDatagramMessages().size() == 0;
     }
 
+    @Test
+    public void scheduleSearchResponses() throws Exception {
+
+        SearchResponseScheduler scheduler = new SearchResponseScheduler(1, 16, 2);
+
+        final CountDownLatch sent = new CountDownLatch(2);
+        Runnable responses = new Runnable() {
+            public void run() {
+                sent.countDown();
+            }
+        };
+
+        IncomingSearchRequest searchAll = createRequestMessage();
+        searchAll.getHeaders().add(UpnpHeader.Type.ST, new STAllHeader());
+        IncomingSearchRequest searchRoot = createRequestMessage();
+        searchRoot.getHeaders().add(UpnpHeader.Type.ST, new RootDeviceHeader());
+        IncomingSearchRequest searchService = createRequestMessage();
+        searchService.getHeaders().add(UpnpHeader.Type.ST, new ServiceTypeHeader(SampleData.createLocalDevice().getServices()[0].getServiceType()));
+
+        assertTrue(scheduler.schedule(searchAll, 500, responses));
+        // Same requester and search target is merged
+        assertFalse(scheduler.schedule(createRequestMessage(searchAll), 0, responses));
+        assertTrue(scheduler.schedule(searchRoot, 500, responses));
+        // Only two pending responses for each source
+        assertFalse(scheduler.schedule(searchService, 0, responses));
+
+        assertEquals(scheduler.getPendingCount(), 2);
+        assertEquals(scheduler.getScheduledCount(), 2);
+        assertEquals(scheduler.getMergedCount(), 1);
+        assertEquals(scheduler.getRejectedCount(), 1);
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertTrue(waitForPendingResponses(scheduler, 5000));
+
+        // Accepted again after the responses have been sent
+        assertTrue(scheduler.schedule(searchService, 0, responses));
+
+        // A failure while sending is logged and releases the pending response
+        assertTrue(scheduler.schedule(searchAll, 0, new Runnable() {
+            public void run() {
+                throw new IllegalStateException("Test failure while sending");
+            }
+        }));
+        assertTrue(waitForPendingResponses(scheduler, 5000));
+        assertTrue(scheduler.schedule(searchAll, 0, responses));
+
+        scheduler.stop();
+        assertFalse(scheduler.schedule(searchAll, 0, responses));
+        assertEquals(scheduler.getRejectedCount(), 2);
+    }
+
+    @Test
+    public void receivedSearchScheduled() throws Exception {
+
+        final UpnpServiceConfiguration schedulingConfiguration = new DefaultUpnpServiceConfiguration(false) {
+        };
+        MockUpnpService upnpService = new MockUpnpService() {
+            @Override
+            public UpnpServiceConfiguration getConfiguration() {
+                return schedulingConfiguration;
+            }
+        };
+
+        LocalDevice localDevice = SampleData.createLocalDevice();
+        LocalDevice embeddedDevice = localDevice.getEmbeddedDevices()[0];
+        upnpService.getRegistry().addDevice(localDevice);
+
+        IncomingSearchRequest searchMsg = createRequestMessage();
+        searchMsg.getHeaders().add(UpnpHeader.Type.MAN, new MANHeader(NotificationSubtype.DISCOVER.getHeaderString()));
+        searchMsg.getHeaders().add(UpnpHeader.Type.MX, new MXHeader(1));
+        searchMsg.getHeaders().add(UpnpHeader.Type.ST, new STAllHeader());
+        searchMsg.getHeaders().add(UpnpHeader.Type.HOST, new HostHeader());
+
+        createProtocol(upnpService, searchMsg).run();
+
+        SearchResponseScheduler scheduler = schedulingConfiguration.getSearchResponseScheduler();
+        assertEquals(scheduler.getScheduledCount(), 1);
+        assertTrue(waitForPendingResponses(scheduler, 5000));
+
+        assertEquals(upnpService.getOutgoingDatagramMessages().size(), 10);
+        for (OutgoingDatagramMessage msg : upnpService.getOutgoingDatagramMessages()) {
+            assertSearchResponseBasics(schedulingConfiguration.getNamespace(), msg, localDevice);
+        }
+        SampleUSNHeaders.assertUSNHeaders(upnpService.getOutgoingDatagramMessages(), localDevice, embeddedDevice, UpnpHeader.Type.ST);
+
+        schedulingConfiguration.shutdown();
+    }
+
+    protected boolean waitForPendingResponses(SearchResponseScheduler scheduler, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (scheduler.getPendingCount() > 0) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
     protected ReceivingSearch createProtocol(UpnpService upnpService, IncomingSearchRequest searchMsg) throws Exception {
         return new ReceivingSearch(upnpService, searchMsg);
     }
@@ -280,4 +384,10 @@ public class SearchReceivedTest {
 
     }
 
+    protected IncomingSearchRequest createRequestMessage(IncomingSearchRequest original) throws UnknownHostException {
+        IncomingSearchRequest copy = createRequestMessage();
+        copy.getHeaders().putAll(original.getHeaders());
+        return copy;
+    }
+
 }
\ No newline at end of file